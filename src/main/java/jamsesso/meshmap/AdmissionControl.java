@@ -0,0 +1,132 @@
+package jamsesso.meshmap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how much work a node takes on at once. Requests are sorted into classes, and each class has its own limit on
+ * requests being handled and on requests waiting their turn. A request that finds its class full is answered BUSY
+ * straight away, with a hint of how long to wait before trying again, instead of piling up behind the others.
+ *
+ * Scans and batches have a small limit of their own, so they cannot crowd out point operations. Membership, handoff
+ * and event messages are never turned away: the cluster cannot heal or stay consistent without them. Opcodes defines
+ * which kind of work each message type is.
+ */
+class AdmissionControl {
+  // Connections served beyond the requests that may be handled or queued, for the messages that are always admitted.
+  private static final int CONTROL_CONNECTIONS = 64;
+
+  enum Kind {
+    // Cluster maintenance. Always admitted.
+    CONTROL,
+
+    // Work on a single key.
+    POINT,
+
+    // Work that grows with the number of entries stored or sent.
+    SCAN
+  }
+
+  private final Lane points;
+  private final Lane scans;
+  private final Message busy;
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  AdmissionControl(MeshMapConfig config) {
+    this.points = new Lane(config.getMaxConcurrentRequests(), config.getMaxQueuedRequests());
+    this.scans = new Lane(config.getMaxConcurrentScans(), config.getMaxQueuedScans());
+    this.busy = new Message(Message.TYPE_BUSY, ByteBuffer.allocate(4).putInt(config.getBusyRetryAfter()).array());
+  }
+
+  long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * How many connections the transport serves at once. Any more could only be answered BUSY after reading them, so the
+   * transport answers BUSY as soon as it accepts them instead.
+   */
+  int getConnectionLimit() {
+    return points.limit() + scans.limit() + CONTROL_CONNECTIONS;
+  }
+
+  /**
+   * Count a request that is turned away, and answer it.
+   */
+  Message reject() {
+    rejectedCount.incrementAndGet();
+    return busy;
+  }
+
+  MessageHandler admit(MessageHandler handler) {
+    return message -> {
+      Kind kind = Opcodes.kind(message.getType());
+
+      if (kind == Kind.CONTROL) {
+        return handler.handle(message);
+      }
+
+      Lane lane = kind == Kind.SCAN ? scans : points;
+
+      if (!lane.enter()) {
+        return reject();
+      }
+
+      try {
+        return handler.handle(message);
+      }
+      finally {
+        lane.exit();
+      }
+    };
+  }
+
+  private static class Lane {
+    private final Semaphore running;
+    private final int maxRunning;
+    private final int maxQueued;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    Lane(int maxRunning, int maxQueued) {
+      this.running = new Semaphore(maxRunning, true);
+      this.maxRunning = maxRunning;
+      this.maxQueued = maxQueued;
+    }
+
+    int limit() {
+      return maxRunning + maxQueued;
+    }
+
+    /**
+     * Wait for a turn, or return false at once if too many requests are already waiting.
+     */
+    boolean enter() {
+      if (running.tryAcquire()) {
+        return true;
+      }
+
+      if (queued.incrementAndGet() > maxQueued) {
+        queued.decrementAndGet();
+        return false;
+      }
+
+      try {
+        running.acquire();
+        return true;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      finally {
+        queued.decrementAndGet();
+      }
+    }
+
+    void exit() {
+      running.release();
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package jamsesso.meshmap;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How long to wait before retrying a failed call to another node, in milliseconds, given how many attempts have failed
+ * so far.
+ */
+@FunctionalInterface
+public interface Backoff {
+  Backoff NONE = attempt -> 0;
+
+  long delay(int attempt);
+
+  static Backoff fixed(long millis) {
+    return attempt -> millis;
+  }
+
+  /**
+   * Exponential backoff with full jitter: a random delay of up to base * 2^(attempt - 1), but never more than max.
+   * Spreading the delay out keeps the clients of a failing node from retrying in lockstep.
+   */
+  static Backoff exponential(long base, long max) {
+    return attempt -> {
+      long ceiling = Math.min(max, base << Math.min(attempt - 1, 30));
+      return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    };
+  }
+}
@@ -0,0 +1,237 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams records into a map much faster than putting them one at a time. Records are read on the calling thread and
+ * partitioned by owner node as they are read. Each node gets its own sender thread, which writes whole batches
+ * straight into the node's store with a single request per batch, so every node is loaded in parallel.
+ *
+ * Memory use is bounded: at most queueDepth full batches wait for each node, and reading pauses while a node falls
+ * behind. Records for the same node are written in the order they were read, so a key that appears more than once
+ * ends up with its last value.
+ *
+ * <pre>
+ * try (RecordReader&lt;String, String&gt; reader = RecordReader.csv(new FileInputStream(file), k -&gt; k, v -&gt; v)) {
+ *   BulkLoader.into(map).batchSize(10_000).onProgress((read, loaded) -&gt; ...).load(reader);
+ * }
+ * </pre>
+ */
+public final class BulkLoader<K, V> {
+  private static final Map<Object, Object> END = Collections.emptyMap();
+
+  private final MeshMapImpl<K, V> map;
+  private int batchSize = 10_000;
+  private int queueDepth = 2;
+  private ProgressListener progressListener = (read, loaded) -> {};
+
+  private BulkLoader(MeshMapImpl<K, V> map) {
+    this.map = map;
+  }
+
+  public static <K, V> BulkLoader<K, V> into(MeshMap<K, V> map) {
+    if (!(map instanceof MeshMapImpl)) {
+      throw new IllegalArgumentException("Bulk loading needs a map joined through a cluster");
+    }
+
+    return new BulkLoader<>((MeshMapImpl<K, V>) map);
+  }
+
+  /**
+   * Entries sent to a node in one request.
+   */
+  public BulkLoader<K, V> batchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Full batches allowed to wait for each node before reading pauses.
+   */
+  public BulkLoader<K, V> queueDepth(int queueDepth) {
+    this.queueDepth = queueDepth;
+    return this;
+  }
+
+  /**
+   * Called after every batch a node has written. May be called from several threads at once.
+   */
+  public BulkLoader<K, V> onProgress(ProgressListener progressListener) {
+    this.progressListener = progressListener;
+    return this;
+  }
+
+  /**
+   * Load every record the reader returns and wait until all of them are written. Returns the number of records read.
+   * The reader is not closed.
+   */
+  public long load(RecordReader<? extends K, ? extends V> reader) throws IOException {
+    Map<Node, Sender> senders = new HashMap<>();
+    AtomicLong read = new AtomicLong();
+    AtomicLong loaded = new AtomicLong();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    ExecutorService executor = Threads.perTask("meshmap-bulk-load");
+
+    try {
+      for (Map.Entry<? extends K, ? extends V> record = reader.next(); record != null; record = reader.next()) {
+        Node owner = map.getNodeForKey(record.getKey());
+        Sender sender = senders.computeIfAbsent(owner, node -> new Sender(node, read, loaded, failure, executor));
+        sender.add(record.getKey(), record.getValue());
+        read.incrementAndGet();
+      }
+
+      for (Sender sender : senders.values()) {
+        sender.finish();
+      }
+
+      for (Sender sender : senders.values()) {
+        sender.await();
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    return read.get();
+  }
+
+  @FunctionalInterface
+  public interface ProgressListener {
+    void onProgress(long recordsRead, long recordsLoaded);
+  }
+
+  /**
+   * How long a busy node asked to be left alone, or -1 if the failure is not a busy node.
+   */
+  private static long retryAfter(Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ServerBusyException) {
+        return ((ServerBusyException) cause).getRetryAfter();
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Collects the records of one node into batches and writes them from a thread of its own.
+   */
+  private class Sender {
+    private final Node node;
+    private final AtomicLong read;
+    private final AtomicLong loaded;
+    private final AtomicReference<RuntimeException> failure;
+    private final BlockingQueue<Map<Object, Object>> queue = new ArrayBlockingQueue<>(queueDepth);
+    private final Future<?> task;
+    private Map<Object, Object> batch = new LinkedHashMap<>();
+
+    Sender(Node node, AtomicLong read, AtomicLong loaded, AtomicReference<RuntimeException> failure,
+           ExecutorService executor) {
+      this.node = node;
+      this.read = read;
+      this.loaded = loaded;
+      this.failure = failure;
+      this.task = executor.submit(this::run);
+    }
+
+    void add(Object key, Object value) {
+      batch.put(key, value);
+
+      if (batch.size() >= batchSize) {
+        enqueue(batch);
+        batch = new LinkedHashMap<>();
+      }
+    }
+
+    void finish() {
+      if (!batch.isEmpty()) {
+        enqueue(batch);
+      }
+
+      enqueue(END);
+    }
+
+    void await() {
+      try {
+        task.get();
+      }
+      catch (Exception e) {
+        checkFailure();
+        throw new MeshMapRuntimeException(e);
+      }
+
+      checkFailure();
+    }
+
+    private void enqueue(Map<Object, Object> batch) {
+      try {
+        // Give up waiting for room as soon as any node fails, so a stalled sender cannot hang the reader.
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+          checkFailure();
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MeshMapRuntimeException("Interrupted while waiting for " + node + " to catch up", e);
+      }
+
+      checkFailure();
+    }
+
+    private void checkFailure() {
+      RuntimeException e = failure.get();
+
+      if (e != null) {
+        throw e;
+      }
+    }
+
+    private void run() {
+      try {
+        for (Map<Object, Object> next = queue.take(); next != END; next = queue.take()) {
+          write(next);
+          progressListener.onProgress(read.get(), loaded.addAndGet(next.size()));
+        }
+      }
+      catch (InterruptedException e) {
+        // Cancelled because another node failed.
+      }
+      catch (RuntimeException e) {
+        failure.compareAndSet(null, e);
+      }
+    }
+
+    /**
+     * Write a batch, waiting for as long as the node stays busy. Writing a batch twice is harmless, and a busy node is
+     * the backpressure a bulk load should slow down for rather than fail on.
+     */
+    private void write(Map<Object, Object> batch) throws InterruptedException {
+      while (true) {
+        try {
+          map.putAll(node, batch);
+          return;
+        }
+        catch (RuntimeException e) {
+          long retryAfter = retryAfter(e);
+
+          if (retryAfter < 0) {
+            throw e;
+          }
+
+          Thread.sleep(retryAfter);
+        }
+      }
+    }
+  }
+}
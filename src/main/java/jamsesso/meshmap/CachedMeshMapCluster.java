@@ -1,11 +1,16 @@
 package jamsesso.meshmap;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class CachedMeshMapCluster implements MeshMapCluster {
-  private final Object[] lock = new Object[0];
+  // A lock rather than a monitor: the view is read from the cluster, possibly from disk, while it is held.
+  private final ReentrantLock lock = new ReentrantLock();
   private final MeshMapCluster delegate;
   private List<Node> nodes;
+  private long epoch = 0;
 
   public CachedMeshMapCluster(MeshMapCluster cluster) {
     this.delegate = cluster;
@@ -13,13 +18,18 @@ public class CachedMeshMapCluster implements MeshMapCluster {
 
   @Override
   public List<Node> getAllNodes() {
-    synchronized (lock) {
+    lock.lock();
+
+    try {
       if(nodes == null) {
         nodes = delegate.getAllNodes();
       }
 
       return nodes;
     }
+    finally {
+      lock.unlock();
+    }
   }
 
   @Override
@@ -27,9 +37,114 @@ public class CachedMeshMapCluster implements MeshMapCluster {
     return delegate.join();
   }
 
+  @Override
+  public <K, V> MeshMap<K, V> getMap(String name) throws MeshMapException {
+    return delegate.getMap(name);
+  }
+
+  /**
+   * The version of this view of the cluster. It goes up every time the view is refreshed.
+   */
+  public long getEpoch() {
+    lock.lock();
+
+    try {
+      return epoch;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The hashes the given node owns, or would own once it is part of the cluster.
+   */
+  HashRange getRange(Node node) {
+    Integer predecessor = null;
+    Integer highest = null;
+
+    for (Node other : getAllNodes()) {
+      int id = other.getId();
+
+      if (other.equals(node)) {
+        continue;
+      }
+
+      if (id < node.getId() && (predecessor == null || id > predecessor)) {
+        predecessor = id;
+      }
+
+      if (highest == null || id > highest) {
+        highest = id;
+      }
+    }
+
+    // The first node on the ring takes over from the last one.
+    if (predecessor == null) {
+      predecessor = highest != null ? highest : node.getId();
+    }
+
+    return new HashRange(predecessor, node.getId());
+  }
+
+  public Node getNodeForHash(int hash) {
+    List<Node> nodes = getAllNodes();
+
+    for (Node node : nodes) {
+      if (hash <= node.getId()) {
+        return node;
+      }
+    }
+
+    return nodes.get(0);
+  }
+
+  public Node getSuccessorNode(Node self) {
+    List<Node> nodes = getAllNodes();
+
+    if (nodes.size() <= 1) {
+      return null;
+    }
+
+    int selfIndex = Collections.binarySearch(nodes, self, Comparator.comparingInt(Node::getId));
+    int successorIndex = selfIndex + 1;
+
+    // Find the successor node.
+    if (successorIndex > nodes.size() - 1) {
+      return nodes.get(0);
+    }
+    else {
+      return nodes.get(successorIndex);
+    }
+  }
+
   public void clearCache() {
-    synchronized (lock) {
+    lock.lock();
+
+    try {
       nodes = null;
+      epoch++;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Refresh the view unless it was already refreshed since the given epoch, so that many requests redirected at once
+   * only refresh it once.
+   */
+  public void refresh(long seenEpoch) {
+    lock.lock();
+
+    try {
+      if (epoch == seenEpoch) {
+        nodes = null;
+        epoch++;
+      }
+    }
+    finally {
+      lock.unlock();
     }
   }
 }
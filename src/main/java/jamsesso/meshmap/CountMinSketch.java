@@ -0,0 +1,39 @@
+package jamsesso.meshmap;
+
+/**
+ * The layout shared by the count-min sketches: a table of ROWS rows of width counters each, where every row is indexed
+ * by a differently seeded mix of the key's hash. A key's estimate is the smallest of its counters. Subclasses decide
+ * how the counters are stored and aged.
+ */
+abstract class CountMinSketch {
+  static final int ROWS = 4;
+  private static final int[] SEEDS = {0x97cb3127, 0xb8fa1c3d, 0x6a09e667, 0xc3a5c85c};
+
+  // The number of counters per row, always a power of two.
+  final int width;
+
+  CountMinSketch(int width) {
+    if (Integer.bitCount(width) != 1) {
+      throw new IllegalArgumentException("The width must be a power of two: " + width);
+    }
+
+    this.width = width;
+  }
+
+  static int hash(Object key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 17;
+    hash *= 0xed5ad4bb;
+    hash ^= hash >>> 11;
+    return hash;
+  }
+
+  /**
+   * The position in the table of the key's counter in the given row.
+   */
+  final int indexOf(int row, int hash) {
+    int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+    h ^= h >>> 16;
+    return row * width + (h & (width - 1));
+  }
+}
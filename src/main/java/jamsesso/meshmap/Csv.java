@@ -0,0 +1,52 @@
+package jamsesso.meshmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class Csv {
+  private Csv() {
+  }
+
+  /**
+   * Split a line into fields at commas outside of quotes.
+   */
+  static List<String> split(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        }
+        else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        }
+        else {
+          quoted = false;
+        }
+      }
+      else if (c == '"') {
+        quoted = true;
+      }
+      else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      }
+      else {
+        field.append(c);
+      }
+    }
+
+    if (quoted) {
+      throw new IllegalArgumentException("Unterminated quote: " + line);
+    }
+
+    fields.add(field.toString());
+    return fields;
+  }
+}
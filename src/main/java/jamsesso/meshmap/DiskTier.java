@@ -0,0 +1,375 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.System.err;
+
+/**
+ * The cold tier of a bounded node store. Entries evicted from memory are appended to a log of segment files, and an
+ * in-memory index points each spilled key at its latest record. Reading a key back into memory, overwriting it or
+ * removing it leaves a dead record behind. Once enough of a full segment is dead, its live records are copied to the
+ * active segment in the background and the segment file is deleted.
+ *
+ * Records are a 4 byte length followed by the serialized value. The index is not persisted: spilled entries live only
+ * as long as the node, like the entries held in memory.
+ */
+class DiskTier implements AutoCloseable {
+  private static final int HEADER = 4;
+
+  private final File directory;
+  private final long segmentSize;
+  private final double compactionThreshold;
+
+  // The lock of the store, which readers hold, so that compaction never deletes a segment under a reader.
+  private final Lock readLock;
+
+  // Guards the log and the segments. A lock rather than a monitor, because file IO happens while it is held, and a
+  // virtual thread doing IO while holding a monitor pins its carrier thread.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<Object, Slot> index = new ConcurrentHashMap<>();
+  private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+  private final ExecutorService compactor;
+  private final AtomicLong failedCompactions = new AtomicLong();
+  private Segment active;
+  private int nextSegmentId = 0;
+
+  DiskTier(MeshMapConfig config, Lock readLock) {
+    this.directory = config.getSpillDirectory();
+    this.segmentSize = config.getSpillSegmentSize();
+    this.compactionThreshold = config.getSpillCompactionThreshold();
+    this.readLock = readLock;
+    this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "meshmap-spill-compaction");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    directory.mkdirs();
+
+    if (!directory.isDirectory() || !directory.canWrite()) {
+      throw new IllegalArgumentException("Spill directory must be a writable directory");
+    }
+  }
+
+  int size() {
+    return index.size();
+  }
+
+  boolean contains(Object key) {
+    return index.containsKey(key);
+  }
+
+  Set<Object> keys() {
+    return index.keySet();
+  }
+
+  long getFailedCompactions() {
+    return failedCompactions.get();
+  }
+
+  /**
+   * Write the value of a key to the log, replacing any earlier record of the key.
+   */
+  void append(Object key, Object value) {
+    byte[] bytes = Message.toBytes(value);
+    lock.lock();
+
+    try {
+      Slot previous = index.put(key, write(bytes));
+
+      if (previous != null) {
+        release(previous);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Read the value of a spilled key, or null if the key is not spilled. Callers must hold the read lock.
+   */
+  Object read(Object key) {
+    Slot slot = index.get(key);
+    return slot == null ? null : Message.fromBytes(readBytes(slot));
+  }
+
+  /**
+   * Forget a spilled key and return its value, or null if the key is not spilled. Callers must hold the read lock.
+   */
+  Object remove(Object key) {
+    byte[] bytes;
+    lock.lock();
+
+    try {
+      Slot slot = index.remove(key);
+
+      if (slot == null) {
+        return null;
+      }
+
+      bytes = readBytes(slot);
+      release(slot);
+    }
+    finally {
+      lock.unlock();
+    }
+
+    return Message.fromBytes(bytes);
+  }
+
+  /**
+   * Forget a spilled key without reading it.
+   */
+  void discard(Object key) {
+    lock.lock();
+
+    try {
+      Slot slot = index.remove(key);
+
+      if (slot != null) {
+        release(slot);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  void clear() {
+    lock.lock();
+
+    try {
+      index.clear();
+      segments.values().forEach(Segment::delete);
+      segments.clear();
+      active = null;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    compactor.shutdownNow();
+    clear();
+  }
+
+  private Slot write(byte[] bytes) {
+    int length = HEADER + bytes.length;
+
+    if (active == null || (active.size > 0 && active.size + length > segmentSize)) {
+      roll();
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    buffer.putInt(bytes.length).put(bytes).flip();
+    long offset = active.size;
+
+    try {
+      while (buffer.hasRemaining()) {
+        active.channel.write(buffer, offset + buffer.position());
+      }
+    }
+    catch (IOException e) {
+      throw new MeshMapRuntimeException("Unable to spill to segment: " + active.file, e);
+    }
+
+    active.size += length;
+    return new Slot(active.id, offset, bytes.length);
+  }
+
+  private byte[] readBytes(Slot slot) {
+    Segment segment = segments.get(slot.getSegment());
+    ByteBuffer buffer = ByteBuffer.allocate(slot.getLength());
+    long offset = slot.getOffset() + HEADER;
+
+    try {
+      while (buffer.hasRemaining()) {
+        if (segment.channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of segment");
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new MeshMapRuntimeException("Unable to read from segment: " + segment.file, e);
+    }
+
+    return buffer.array();
+  }
+
+  private void roll() {
+    Segment sealed = active;
+    active = new Segment(nextSegmentId++, directory);
+    segments.put(active.id, active);
+
+    if (sealed != null) {
+      compactIfNecessary(sealed);
+    }
+  }
+
+  /**
+   * Account for a record that is no longer referenced by the index.
+   */
+  private void release(Slot slot) {
+    Segment segment = segments.get(slot.getSegment());
+
+    if (segment != null) {
+      segment.garbage += HEADER + slot.getLength();
+
+      if (segment != active) {
+        compactIfNecessary(segment);
+      }
+    }
+  }
+
+  private void compactIfNecessary(Segment segment) {
+    if (segment.compacting || segment.failed || segment.garbage < segment.size * compactionThreshold) {
+      return;
+    }
+
+    segment.compacting = true;
+
+    if (!compactor.isShutdown()) {
+      compactor.execute(() -> compact(segment));
+    }
+  }
+
+  private void compact(Segment segment) {
+    // Copy the live records without holding the read lock, so reads and writes carry on meanwhile. The segment is
+    // sealed, so keys can only move out of it while it is copied.
+    Map<Object, Slot[]> moved = new HashMap<>();
+
+    try {
+      for (Map.Entry<Object, Slot> entry : index.entrySet()) {
+        Slot slot = entry.getValue();
+
+        if (slot.getSegment() == segment.id) {
+          byte[] bytes = readBytes(slot);
+          lock.lock();
+
+          try {
+            if (segments.get(segment.id) != segment) {
+              // Cleared meanwhile.
+              return;
+            }
+
+            moved.put(entry.getKey(), new Slot[] {slot, write(bytes)});
+          }
+          finally {
+            lock.unlock();
+          }
+        }
+      }
+
+      readLock.lock();
+      lock.lock();
+
+      try {
+        List<Slot> stale = new ArrayList<>();
+
+        moved.forEach((key, slots) -> {
+          if (!index.replace(key, slots[0], slots[1])) {
+            stale.add(slots[1]);
+          }
+        });
+
+        stale.forEach(this::release);
+
+        if (segments.remove(segment.id, segment)) {
+          segment.delete();
+        }
+      }
+      finally {
+        lock.unlock();
+        readLock.unlock();
+      }
+    }
+    catch (RuntimeException e) {
+      lock.lock();
+
+      try {
+        if (segments.get(segment.id) != segment) {
+          // Cleared meanwhile.
+          return;
+        }
+
+        // The segment is still intact and keeps being read from, but it is not compacted again, so a segment that
+        // cannot be read does not fail over and over. The copies made so far are dead records in the active segment.
+        moved.forEach((key, slots) -> {
+          if (!slots[1].equals(index.get(key))) {
+            release(slots[1]);
+          }
+        });
+
+        segment.failed = true;
+        segment.compacting = false;
+      }
+      finally {
+        lock.unlock();
+      }
+
+      failedCompactions.incrementAndGet();
+      err.println("Unable to compact spill segment " + segment.file + ": " + e);
+    }
+  }
+
+  @Value
+  private static class Slot {
+    int segment;
+    long offset;
+    int length;
+  }
+
+  private static class Segment {
+    private final int id;
+    private final File file;
+    private final FileChannel channel;
+    private long size = 0;
+    private long garbage = 0;
+    private boolean compacting = false;
+    private boolean failed = false;
+
+    Segment(int id, File directory) {
+      this.id = id;
+
+      try {
+        this.file = File.createTempFile("meshmap-", ".spill", directory);
+        this.file.deleteOnExit();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      catch (IOException e) {
+        throw new MeshMapRuntimeException("Unable to create a spill segment in " + directory, e);
+      }
+    }
+
+    void delete() {
+      try {
+        channel.close();
+      }
+      catch (IOException e) {
+        // Nothing left to read from it anyway.
+      }
+
+      file.delete();
+    }
+  }
+}
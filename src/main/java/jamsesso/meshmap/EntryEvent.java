@@ -0,0 +1,23 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.io.Serializable;
+
+/**
+ * A change to an entry, published by the node that owns the key. The key and values are null for CLEAR events.
+ */
+@Value
+public class EntryEvent<K, V> implements Serializable {
+  public enum Type {
+    PUT,
+    REMOVE,
+    CLEAR,
+    EVICT
+  }
+
+  Type type;
+  K key;
+  V oldValue;
+  V value;
+}
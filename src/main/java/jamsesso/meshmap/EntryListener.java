@@ -0,0 +1,6 @@
+package jamsesso.meshmap;
+
+@FunctionalInterface
+public interface EntryListener<K, V> {
+  void onEvent(EntryEvent<K, V> event);
+}
@@ -0,0 +1,219 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static java.lang.System.err;
+
+/**
+ * Pushes the changes made to the entries owned by this node to the nodes that subscribed to them. Every subscriber
+ * node has its own bounded queue drained by a single thread, so events reach a subscriber in the order they happened.
+ *
+ * Events are queued while the store lock is held, so a writer only waits a moment for a full queue before it drops the
+ * event. A slow subscriber therefore loses events rather than stalling every writer on this node. Events are published
+ * after the write took effect, so a failing filter, a full queue or an unreachable subscriber never fails the write.
+ * Such events are counted instead.
+ */
+class EventPublisher implements StoreListener, AutoCloseable {
+  private static final int QUEUE_CAPACITY = 10_000;
+  private static final int BATCH_SIZE = 500;
+  private static final long ENQUEUE_TIMEOUT = 10;
+
+  private final Map<UUID, Subscription> subscriptions = new ConcurrentHashMap<>();
+  private final Map<Node, Dispatcher> dispatchers = new ConcurrentHashMap<>();
+  private final BiConsumer<Node, Notification[]> sender;
+  private final Consumer<Notification[]> receiver;
+  private final AtomicLong filterFailures = new AtomicLong();
+  private final AtomicLong droppedEvents = new AtomicLong();
+
+  // Events from other nodes reach the local listeners on a single thread, so they stay in order.
+  private final ExecutorService listenerThread = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "meshmap-listeners");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  EventPublisher(BiConsumer<Node, Notification[]> sender, Consumer<Notification[]> receiver) {
+    this.sender = sender;
+    this.receiver = receiver;
+  }
+
+  @Override
+  public boolean isActive() {
+    return !subscriptions.isEmpty();
+  }
+
+  void subscribe(Subscription subscription) {
+    subscriptions.put(subscription.getId(), subscription);
+  }
+
+  void unsubscribe(UUID id) {
+    subscriptions.remove(id);
+  }
+
+  /**
+   * Forget the subscriptions of nodes that are no longer part of the cluster.
+   */
+  void retainNodes(Collection<Node> nodes) {
+    subscriptions.values().removeIf(subscription -> !nodes.contains(subscription.getSubscriber()));
+    dispatchers.keySet().stream()
+      .filter(node -> !nodes.contains(node))
+      .forEach(node -> dispatchers.remove(node).stop());
+  }
+
+  /**
+   * How many events were not published because a subscription's filter threw.
+   */
+  long getFilterFailures() {
+    return filterFailures.get();
+  }
+
+  /**
+   * How many events could not be delivered to their subscriber.
+   */
+  long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  Subscription[] getSubscriptions() {
+    return subscriptions.values().toArray(new Subscription[0]);
+  }
+
+  /**
+   * Hand events published by another node to the local listeners. They run on a thread of their own rather than the
+   * one that received them, so a listener that writes back to the publishing node cannot hold up the acknowledgement
+   * that node is waiting for.
+   */
+  void receive(Notification[] notifications) {
+    listenerThread.execute(() -> receiver.accept(notifications));
+  }
+
+  @Override
+  public void onEvent(EntryEvent<Object, Object> event) {
+    for (Subscription subscription : subscriptions.values()) {
+      if (event.getType() == EntryEvent.Type.CLEAR || matches(subscription, event.getKey())) {
+        dispatchers.computeIfAbsent(subscription.getSubscriber(), Dispatcher::new)
+          .enqueue(new Notification(subscription.getId(), event));
+      }
+    }
+  }
+
+  private boolean matches(Subscription subscription, Object key) {
+    try {
+      return subscription.getFilter().test(key);
+    }
+    catch (RuntimeException e) {
+      filterFailures.incrementAndGet();
+      err.println("Event filter of subscription " + subscription.getId() + " failed for key " + key + ": " + e);
+      return false;
+    }
+  }
+
+  @Override
+  public void close() {
+    dispatchers.values().forEach(Dispatcher::stop);
+    dispatchers.clear();
+    listenerThread.shutdown();
+  }
+
+  @Value
+  static class Subscription implements Serializable {
+    UUID id;
+    Node subscriber;
+    Predicate<Object> filter;
+  }
+
+  @Value
+  static class Notification implements Serializable {
+    UUID subscriptionId;
+    EntryEvent<Object, Object> event;
+  }
+
+  private class Dispatcher implements Runnable {
+    private final Node subscriber;
+    private final BlockingQueue<Notification> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    Dispatcher(Node subscriber) {
+      this.subscriber = subscriber;
+      this.thread = new Thread(this, "meshmap-events-" + subscriber);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void enqueue(Notification notification) {
+      try {
+        if (queue.offer(notification, ENQUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (droppedEvents.incrementAndGet() % QUEUE_CAPACITY == 1) {
+        err.println("Dropping events for node " + subscriber + ", which is not keeping up");
+      }
+    }
+
+    void stop() {
+      running = false;
+      thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+      List<Notification> batch = new ArrayList<>(BATCH_SIZE);
+
+      while (running) {
+        try {
+          batch.add(queue.take());
+          queue.drainTo(batch, BATCH_SIZE - 1);
+          deliver(batch.toArray(new Notification[0]));
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        finally {
+          batch.clear();
+        }
+      }
+    }
+
+    /**
+     * Send a batch, retrying once to ride out a dropped connection. A batch that fails twice is counted and dropped
+     * so that one unreachable subscriber cannot stall its queue forever.
+     */
+    private void deliver(Notification[] batch) {
+      try {
+        sender.accept(subscriber, batch);
+      }
+      catch (RuntimeException first) {
+        try {
+          sender.accept(subscriber, batch);
+        }
+        catch (RuntimeException e) {
+          droppedEvents.addAndGet(batch.length);
+          err.println("Dropped " + batch.length + " events for node " + subscriber + ": " + e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,6 @@
+package jamsesso.meshmap;
+
+@FunctionalInterface
+public interface EvictionListener {
+  void onEviction(Object key, Object value);
+}
@@ -0,0 +1,22 @@
+package jamsesso.meshmap;
+
+/**
+ * Decides which keys a bounded node store gives up once it exceeds its capacity. Implementations are only ever called
+ * while the store holds its lock, so they do not need to be thread-safe.
+ */
+public interface EvictionPolicy {
+  void recordAccess(Object key);
+
+  void recordWrite(Object key, long weight);
+
+  void recordRemoval(Object key);
+
+  long weightedSize();
+
+  /**
+   * Select a key to evict and forget about it. Returns null if the policy is not tracking any keys.
+   */
+  Object evict();
+
+  void clear();
+}
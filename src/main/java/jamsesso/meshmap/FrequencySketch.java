@@ -0,0 +1,73 @@
+package jamsesso.meshmap;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch of 4-bit counters used to estimate how often a key has been seen recently. Once the number of
+ * recorded accesses reaches the sample size every counter is halved so that old popularity fades away.
+ */
+class FrequencySketch extends CountMinSketch {
+  private static final int MAX_COUNT = 15;
+  private static final int MAX_WIDTH = 1 << 20;
+
+  private final byte[] table;
+  private final int sampleSize;
+  private int additions = 0;
+
+  FrequencySketch(long expectedSize) {
+    super(widthFor(expectedSize));
+    this.table = new byte[width * ROWS];
+    this.sampleSize = width * 10;
+  }
+
+  int frequency(Object key) {
+    int hash = hash(key);
+    int frequency = MAX_COUNT;
+
+    for (int row = 0; row < ROWS; row++) {
+      frequency = Math.min(frequency, table[indexOf(row, hash)]);
+    }
+
+    return frequency;
+  }
+
+  /**
+   * Record an access to the key. Returns true if the sketch was aged as a result.
+   */
+  boolean increment(Object key) {
+    int hash = hash(key);
+
+    for (int row = 0; row < ROWS; row++) {
+      int index = indexOf(row, hash);
+
+      if (table[index] < MAX_COUNT) {
+        table[index]++;
+      }
+    }
+
+    if (++additions >= sampleSize) {
+      reset();
+      return true;
+    }
+
+    return false;
+  }
+
+  void clear() {
+    Arrays.fill(table, (byte) 0);
+    additions = 0;
+  }
+
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (byte) (table[i] >>> 1);
+    }
+
+    additions /= 2;
+  }
+
+  private static int widthFor(long expectedSize) {
+    long clamped = Math.max(16, Math.min(expectedSize, MAX_WIDTH));
+    return Integer.highestOneBit((int) clamped - 1) << 1;
+  }
+}
@@ -0,0 +1,160 @@
+package jamsesso.meshmap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Tracks a range of keys this node is handing over to another node. While the range is copied, this node keeps
+ * serving it and remembers which keys changed, so that only those need to be sent again before the target takes over.
+ * After that the range is redirected to the target until this node's view of the cluster catches up. Once it has, the
+ * handoff is settled: routing is left to the view, but the store keeps turning away writes to the range that were
+ * routed here before the handoff finished.
+ *
+ * Only one handoff is tracked at a time. Another one may start once this one settled, or once it was abandoned
+ * because its target never showed up in the view.
+ */
+class Handoff implements StoreListener {
+  private final ToIntFunction<Object> hasher;
+
+  // Guarded by the store lock, like every listener callback.
+  private final Set<Object> dirty = new HashSet<>();
+  private boolean cleared = false;
+
+  private volatile Node target;
+  private volatile HashRange range;
+  private volatile boolean copying = false;
+  private volatile boolean settled = false;
+  private volatile long finishedAt = 0;
+
+  Handoff(ToIntFunction<Object> hasher) {
+    this.hasher = hasher;
+  }
+
+  void start(Node target, HashRange range) {
+    dirty.clear();
+    cleared = false;
+
+    // Start copying before publishing the target, so the range is never redirected before it was handed over.
+    this.copying = true;
+    this.settled = false;
+    this.range = range;
+    this.target = target;
+  }
+
+  /**
+   * The keys that changed since the copy started. Must be called with the store lock held.
+   */
+  List<Object> getDirty() {
+    return new ArrayList<>(dirty);
+  }
+
+  /**
+   * Whether the store was cleared since the copy started. Must be called with the store lock held.
+   */
+  boolean wasCleared() {
+    return cleared;
+  }
+
+  /**
+   * Stop tracking changes and start redirecting the range. Must be called with the store lock held, after the target
+   * received the changed keys.
+   */
+  void finish() {
+    dirty.clear();
+    cleared = false;
+    finishedAt = System.currentTimeMillis();
+    copying = false;
+  }
+
+  /**
+   * Stop redirecting the range, because the view of the cluster now routes it to the target by itself.
+   */
+  void settle() {
+    settled = true;
+  }
+
+  void reset() {
+    copying = false;
+    settled = false;
+    target = null;
+    range = null;
+  }
+
+  boolean isCopying() {
+    return copying;
+  }
+
+  boolean isSettled() {
+    return settled;
+  }
+
+  /**
+   * Whether the range was handed over more than timeout milliseconds ago but the view still does not route it to the
+   * target, as happens when the target failed before it could join.
+   */
+  boolean isAbandoned(long timeout) {
+    return target != null && !copying && !settled && System.currentTimeMillis() - finishedAt > timeout;
+  }
+
+  Node getTarget() {
+    return target;
+  }
+
+  HashRange getRange() {
+    return range;
+  }
+
+  boolean covers(Object key) {
+    HashRange current = range;
+    return current != null && current.contains(hasher.applyAsInt(key));
+  }
+
+  /**
+   * The node that took over the given hash, or null if this node has not handed it over.
+   */
+  Node redirect(int hash) {
+    return settled ? null : handedOver(hash);
+  }
+
+  private Node handedOver(int hash) {
+    Node current = target;
+    HashRange currentRange = range;
+
+    if (copying || current == null || currentRange == null || !currentRange.contains(hash)) {
+      return null;
+    }
+
+    return current;
+  }
+
+  /**
+   * Stays active until settled, so that writes that raced with the end of the handoff reach the store lock and are
+   * turned away there.
+   */
+  @Override
+  public boolean isActive() {
+    return target != null && !settled;
+  }
+
+  @Override
+  public Node movedTo(Object key) {
+    return target == null ? null : handedOver(hasher.applyAsInt(key));
+  }
+
+  @Override
+  public void onEvent(EntryEvent<Object, Object> event) {
+    if (!copying) {
+      return;
+    }
+
+    if (event.getType() == EntryEvent.Type.CLEAR) {
+      cleared = true;
+    }
+    else if (covers(event.getKey())) {
+      dirty.add(event.getKey());
+    }
+  }
+}
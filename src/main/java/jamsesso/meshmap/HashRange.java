@@ -0,0 +1,27 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.io.Serializable;
+
+/**
+ * The key hashes owned by one node: everything after the previous node's ID, up to and including the node's own ID,
+ * wrapping around the end of the ring. When lower equals upper the node is alone and owns every hash.
+ */
+@Value
+class HashRange implements Serializable {
+  int lower;
+  int upper;
+
+  boolean contains(int hash) {
+    if (lower < upper) {
+      return hash > lower && hash <= upper;
+    }
+
+    if (lower > upper) {
+      return hash > lower || hash <= upper;
+    }
+
+    return true;
+  }
+}
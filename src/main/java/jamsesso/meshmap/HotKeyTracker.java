@@ -0,0 +1,189 @@
+package jamsesso.meshmap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.lang.System.err;
+
+/**
+ * Estimates how often the keys owned by this node are read using a small count-min sketch whose counters are halved
+ * once per window. A key read at least threshold times within a window becomes hot, and stays hot until its estimate
+ * decays below half the threshold. When replication is enabled, a write to a hot key makes the owner tell every node
+ * to drop its cached copy.
+ *
+ * Tracking is off unless it is enabled in the config, and then costs a read a few atomic increments. Increments that
+ * race with the halving may be lost, which only makes the estimates slightly lower.
+ */
+class HotKeyTracker implements StoreListener, AutoCloseable {
+  private static final int WIDTH = 1 << 12;
+
+  private final ReadCounts counts = new ReadCounts();
+  private final boolean enabled;
+  private final long threshold;
+  private final long window;
+  private final boolean replication;
+  private final Map<Object, Long> hotKeys = new ConcurrentHashMap<>();
+  private final Consumer<Object> invalidator;
+  private final ExecutorService invalidations;
+  private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+  HotKeyTracker(MeshMapConfig config, Consumer<Object> invalidator) {
+    this.replication = config.isHotKeyReplication();
+    this.enabled = config.isHotKeyTracking() || replication;
+    this.threshold = config.getHotKeyThreshold();
+    this.window = config.getHotKeyWindow();
+    this.invalidator = invalidator;
+    this.invalidations = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "meshmap-hot-key-invalidation");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Record a read of the key. Returns true if the key is hot.
+   */
+  boolean recordRead(Object key) {
+    if (!enabled) {
+      return false;
+    }
+
+    decayIfDue();
+    int estimate = counts.increment(key);
+
+    if (estimate >= threshold) {
+      hotKeys.put(key, (long) estimate);
+      return true;
+    }
+
+    return hotKeys.containsKey(key);
+  }
+
+  Map<Object, Long> getHotKeys() {
+    if (!enabled) {
+      return Collections.emptyMap();
+    }
+
+    decayIfDue();
+    return Collections.unmodifiableMap(new HashMap<>(hotKeys));
+  }
+
+  @Override
+  public boolean isActive() {
+    return replication && !hotKeys.isEmpty();
+  }
+
+  @Override
+  public void onEvent(EntryEvent<Object, Object> event) {
+    if (event.getType() == EntryEvent.Type.CLEAR) {
+      hotKeys.keySet().forEach(this::invalidate);
+    }
+    else if (hotKeys.containsKey(event.getKey())) {
+      invalidate(event.getKey());
+    }
+  }
+
+  @Override
+  public void close() {
+    invalidations.shutdown();
+  }
+
+  private void decayIfDue() {
+    long now = System.currentTimeMillis();
+    long start = windowStart.get();
+
+    // Only the thread that moves the window forward decays, the others carry on counting.
+    if (now - start < window || !windowStart.compareAndSet(start, now)) {
+      return;
+    }
+
+    // Halve once per elapsed window so that a long quiet period forgets old popularity entirely.
+    counts.halve((int) Math.min(31, (now - start) / window));
+
+    Iterator<Map.Entry<Object, Long>> iterator = hotKeys.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      Map.Entry<Object, Long> entry = iterator.next();
+      long estimate = counts.estimate(entry.getKey());
+
+      if (estimate < threshold / 2) {
+        iterator.remove();
+        invalidate(entry.getKey());
+      }
+      else {
+        entry.setValue(estimate);
+      }
+    }
+  }
+
+  private void invalidate(Object key) {
+    if (!replication || invalidations.isShutdown()) {
+      return;
+    }
+
+    // Invalidate off the store lock. Ordering is kept by the single invalidation thread.
+    invalidations.execute(() -> {
+      try {
+        invalidator.accept(key);
+      }
+      catch (RuntimeException e) {
+        err.println("Unable to invalidate hot key: " + key);
+        e.printStackTrace();
+      }
+    });
+  }
+
+  private static class ReadCounts extends CountMinSketch {
+    private final AtomicIntegerArray table = new AtomicIntegerArray(ROWS * WIDTH);
+
+    ReadCounts() {
+      super(WIDTH);
+    }
+
+    /**
+     * Count a read of the key and return its new estimate.
+     */
+    int increment(Object key) {
+      int hash = hash(key);
+      int estimate = Integer.MAX_VALUE;
+
+      for (int row = 0; row < ROWS; row++) {
+        int index = indexOf(row, hash);
+        int count = table.get(index);
+
+        if (count < Integer.MAX_VALUE) {
+          count = table.incrementAndGet(index);
+        }
+
+        estimate = Math.min(estimate, count);
+      }
+
+      return estimate;
+    }
+
+    int estimate(Object key) {
+      int hash = hash(key);
+      int estimate = Integer.MAX_VALUE;
+
+      for (int row = 0; row < ROWS; row++) {
+        estimate = Math.min(estimate, table.get(indexOf(row, hash)));
+      }
+
+      return estimate;
+    }
+
+    void halve(int shift) {
+      for (int i = 0; i < table.length(); i++) {
+        table.set(i, table.get(i) >>> shift);
+      }
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package jamsesso.meshmap;
+
+import lombok.Getter;
+
+/**
+ * Thrown by the local store when a write reaches it after the key was handed over to another node.
+ */
+class KeyMovedException extends MeshMapRuntimeException {
+  private final @Getter Node owner;
+
+  KeyMovedException(Object key, Node owner) {
+    super("Key has moved to node " + owner + ": " + key);
+    this.owner = owner;
+  }
+}
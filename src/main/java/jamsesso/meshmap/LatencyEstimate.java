@@ -0,0 +1,82 @@
+package jamsesso.meshmap;
+
+/**
+ * The recent response times of one node, counted in log-linear buckets that are within 1/8 of each other. Counts are
+ * halved every window so that the estimate follows the node when it gets slower or faster.
+ */
+class LatencyEstimate {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MIN_SAMPLES = 20;
+  private static final long WINDOW = 10_000_000_000L;
+
+  private final int[] counts = new int[64 * SUB_BUCKETS];
+  private long total = 0;
+  private long windowStart = System.nanoTime();
+
+  synchronized void record(long nanos) {
+    decayIfDue();
+    counts[indexOf(Math.max(0, nanos))]++;
+    total++;
+  }
+
+  /**
+   * The given percentile of recent response times in nanoseconds, or -1 if there are too few samples to tell.
+   */
+  synchronized long percentile(double percentile) {
+    decayIfDue();
+
+    if (total < MIN_SAMPLES) {
+      return -1;
+    }
+
+    long rank = (long) Math.ceil(percentile * total);
+    long seen = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+
+    return upperBound(counts.length - 1);
+  }
+
+  private void decayIfDue() {
+    long now = System.nanoTime();
+
+    if (now - windowStart < WINDOW) {
+      return;
+    }
+
+    windowStart = now;
+    total = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] >>>= 1;
+      total += counts[i];
+    }
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKETS - 1;
+    long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
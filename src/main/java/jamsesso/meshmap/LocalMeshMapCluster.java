@@ -1,19 +1,36 @@
 package jamsesso.meshmap;
 
+import lombok.Value;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
+  private static final String TYPE_MAPS = "MAPS";
+
   private final Node self;
   private final File directory;
+  private final MeshMapConfig config;
+  private final Tracer tracer;
+  private final Map<String, MeshMapImpl> maps = new ConcurrentHashMap<>();
+  private final Map<String, LongMeshMapImpl> longMaps = new ConcurrentHashMap<>();
   private MeshMapServer server;
-  private MeshMap map;
 
   public LocalMeshMapCluster(Node self, File directory) {
+    this(self, directory, MeshMapConfig.DEFAULT);
+  }
+
+  public LocalMeshMapCluster(Node self, File directory, MeshMapConfig config) {
     directory.mkdirs();
 
     if (!directory.isDirectory()) {
@@ -26,26 +43,66 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
 
     this.self = self;
     this.directory = directory;
+    this.config = config;
+    this.tracer = new Tracer(config);
   }
 
   @Override
   public List<Node> getAllNodes() {
-    return Stream.of(directory.listFiles())
+    Stream<Node> nodes = Stream.of(directory.listFiles())
       .filter(File::isFile)
       .map(File::getName)
-      .map(Node::from)
+      .map(Node::from);
+
+    // A joining node only becomes visible to others once it has taken its data over, but it already routes to itself.
+    if (server != null) {
+      nodes = Stream.concat(nodes, Stream.of(self)).distinct();
+    }
+
+    return nodes
       .sorted(Comparator.comparingInt(Node::getId))
       .collect(Collectors.toList());
   }
 
   @Override
   public <K, V> MeshMap<K, V> join() throws MeshMapException {
-    if (this.map != null) {
-      return (MeshMap<K, V>) this.map;
+    if (server != null) {
+      return map(Message.DEFAULT_MAP);
     }
 
     File file = new File(directory.getAbsolutePath() + File.separator + self.toString());
 
+    if (file.exists()) {
+      throw new MeshMapException("File could not be created: " + file.getName());
+    }
+
+    server = new MeshMapServer(this, self, config.getTransport().get(), tracer, config);
+
+    try {
+      server.start(this::handle);
+    }
+    catch(IOException e) {
+      throw new MeshMapException("Unable to start the mesh map server", e);
+    }
+
+    // Every map that already exists in the cluster needs to take over its share of the data.
+    MapNames existing = getExistingMapNames();
+
+    // The default map is always opened, but only once: a second handoff would find nothing left to hand over.
+    Set<String> names = new LinkedHashSet<>(Arrays.asList(existing.getMaps()));
+    names.add(Message.DEFAULT_MAP);
+
+    for (String name : names) {
+      map(name).open();
+    }
+
+    for (String name : existing.getLongMaps()) {
+      longMap(name).open();
+    }
+
+    MeshMapImpl<K, V> map = map(Message.DEFAULT_MAP);
+
+    // Only now that this node holds its data can other nodes find it.
     try {
       boolean didCreateFile = file.createNewFile();
 
@@ -59,25 +116,60 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
 
     file.deleteOnExit();
 
-    server = new MeshMapServer(this, self);
-    MeshMapImpl<K, V> map = new MeshMapImpl<>(this, server, self);
-
-    try {
-      server.start(map);
-      map.open();
-    }
-    catch(IOException e) {
-      throw new MeshMapException("Unable to start the mesh map server", e);
-    }
-
+    // Nodes that left while this node was joining could not tell it, because they could not see it yet.
+    handle(Message.HI);
     server.broadcast(Message.HI);
-    this.map = map;
 
     return map;
   }
 
+  @Override
+  public <K, V> MeshMap<K, V> getMap(String name) throws MeshMapException {
+    join();
+    return map(name);
+  }
+
+  public LongMeshMap getLongMap(String name) throws MeshMapException {
+    join();
+    return longMap(name);
+  }
+
+  public LongMeshMap joinLong() throws MeshMapException {
+    return getLongMap(Message.DEFAULT_MAP);
+  }
+
+  /**
+   * The sampled calls this node made to other nodes. Also registered with JMX while the node is part of the cluster.
+   */
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * How many reads this node sent a second time because the first copy was slow. Zero unless hedgeReads is enabled.
+   */
+  public long getHedgeCount() {
+    return server == null ? 0 : server.getHedgeCount();
+  }
+
+  /**
+   * How many requests this node turned away as BUSY because it already had enough work.
+   */
+  public long getRejectedCount() {
+    return server == null ? 0 : server.getRejectedCount();
+  }
+
   @Override
   public void close() throws Exception {
+    // Hand the data of every map over to the rest of the cluster before leaving.
+    for (AutoCloseable map : maps.values()) {
+      map.close();
+    }
+
+    for (AutoCloseable map : longMaps.values()) {
+      map.close();
+    }
+
     File file = new File(directory.getAbsolutePath() + File.separator + self.toString());
     boolean didDeleteFile = file.delete();
 
@@ -90,4 +182,65 @@ public class LocalMeshMapCluster implements MeshMapCluster, AutoCloseable {
       server.close();
     }
   }
+
+  private <K, V> MeshMapImpl<K, V> map(String name) {
+    return maps.computeIfAbsent(name, n -> new MeshMapImpl<>(n, this, server, self, config));
+  }
+
+  private LongMeshMapImpl longMap(String name) {
+    return longMaps.computeIfAbsent(name, n -> new LongMeshMapImpl(n, this, server, self));
+  }
+
+  private MapNames getExistingMapNames() throws MeshMapException {
+    Node successor = new CachedMeshMapCluster(this).getSuccessorNode(self);
+
+    if (successor == null) {
+      return new MapNames(new String[0], new String[0]);
+    }
+
+    try {
+      Message response = server.message(successor, new Message(TYPE_MAPS));
+
+      // Nodes that predate named maps acknowledge the request instead, and only hold the default map.
+      if (!TYPE_MAPS.equals(response.getType())) {
+        return new MapNames(new String[0], new String[0]);
+      }
+
+      return response.getPayload(MapNames.class);
+    }
+    catch (IOException e) {
+      throw new MeshMapException("Unable to list the maps in the cluster", e);
+    }
+  }
+
+  private Message handle(Message message) {
+    switch (message.getType()) {
+      case TYPE_MAPS: {
+        return new Message(TYPE_MAPS, new MapNames(
+          maps.keySet().toArray(new String[0]),
+          longMaps.keySet().toArray(new String[0])));
+      }
+
+      case Message.TYPE_HI:
+      case Message.TYPE_BYE: {
+        maps.values().forEach(map -> map.handle(message));
+        longMaps.values().forEach(map -> map.handle(message));
+        return Message.ACK;
+      }
+
+      default: {
+        if (message.getType().startsWith(LongMeshMapImpl.TYPE_PREFIX)) {
+          return longMap(message.getMap()).handle(message);
+        }
+
+        return map(message.getMap()).handle(message);
+      }
+    }
+  }
+
+  @Value
+  private static class MapNames implements Serializable {
+    String[] maps;
+    String[] longMaps;
+  }
 }
@@ -0,0 +1,723 @@
+package jamsesso.meshmap;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The entries owned by a single node. When the store is bounded, every write is weighed and reported to the eviction
+ * policy, and keys are evicted until the store fits within its capacity again. Reads are reported through a lossy
+ * ReadBuffer instead, so that they never wait for the store lock. When anyone is listening for changes, every
+ * mutation is published while the store lock is held so that events for a key are emitted in order.
+ *
+ * With a spill directory, evicted entries move to a DiskTier instead of being dropped, and any access to a spilled key
+ * moves it back into memory first. A key is only ever in one of the two tiers.
+ */
+class LocalStore implements Map<Object, Object> {
+  private final Map<Object, Object> data = new ConcurrentHashMap<>();
+  private final long capacity;
+  private final Weigher weigher;
+  private final EvictionPolicy policy;
+  private final EvictionListener evictionListener;
+  private final StoreListener[] listeners;
+  private final DiskTier disk;
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  // A lock rather than a monitor: handing a range over holds it across network calls, and a virtual thread waiting
+  // on a monitor would pin its carrier thread for that long.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ReadBuffer reads = new ReadBuffer();
+
+  LocalStore(MeshMapConfig config, StoreListener... listeners) {
+    this.capacity = config.getCapacity();
+    this.weigher = config.getWeigher();
+    this.policy = isBounded() ? config.getEvictionPolicy().apply(capacity) : null;
+    this.evictionListener = config.getEvictionListener();
+    this.listeners = listeners;
+    this.disk = isBounded() && config.getSpillDirectory() != null ? new DiskTier(config, lock) : null;
+  }
+
+  boolean isBounded() {
+    return capacity < Long.MAX_VALUE;
+  }
+
+  /**
+   * The store lock. Holding it keeps every guarded mutation out.
+   */
+  Lock getLock() {
+    return lock;
+  }
+
+  long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  int getSpilledSize() {
+    return disk == null ? 0 : disk.size();
+  }
+
+  long getFailedCompactions() {
+    return disk == null ? 0 : disk.getFailedCompactions();
+  }
+
+  @Override
+  public Object get(Object key) {
+    Object value = data.get(key);
+
+    if (value == null && disk != null && disk.contains(key)) {
+      lock.lock();
+
+      try {
+        return faultIn(key);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    if (value != null && policy != null) {
+      recordRead(key);
+    }
+
+    return value;
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.put(key, value);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.put(key, value);
+      afterWrite(key, previous, value);
+      return previous;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.remove(key);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.remove(key);
+      afterRemove(key, previous);
+      return previous;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object putIfAbsent(Object key, Object value) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.putIfAbsent(key, value);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.putIfAbsent(key, value);
+      afterUpdate(key, previous, previous == null ? value : previous);
+      return previous;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object replace(Object key, Object value) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.replace(key, value);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.replace(key, value);
+
+      if (previous != null) {
+        afterWrite(key, previous, value);
+      }
+
+      return previous;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean replace(Object key, Object oldValue, Object newValue) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      boolean result = data.replace(key, oldValue, newValue);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      boolean replaced = data.replace(key, oldValue, newValue);
+
+      if (replaced) {
+        afterWrite(key, oldValue, newValue);
+      }
+
+      return replaced;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      boolean result = data.remove(key, value);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      boolean removed = data.remove(key, value);
+
+      if (removed) {
+        afterRemove(key, value);
+      }
+
+      return removed;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.compute(key, remappingFunction);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object[] previous = new Object[1];
+      Object result = data.compute(key, (k, v) -> {
+        previous[0] = v;
+        return remappingFunction.apply(k, v);
+      });
+
+      afterUpdate(key, previous[0], result);
+      return result;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.computeIfAbsent(key, mappingFunction);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.get(key);
+      Object result = data.computeIfAbsent(key, mappingFunction);
+      afterUpdate(key, previous, result);
+      return result;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.computeIfPresent(key, remappingFunction);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.get(key);
+      Object result = data.computeIfPresent(key, remappingFunction);
+      afterUpdate(key, previous, result);
+      return result;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    if (!isGuarded()) {
+      checkOwned(key);
+      Object result = data.merge(key, value, remappingFunction);
+      afterUnguarded(key);
+      return result;
+    }
+
+    lock.lock();
+
+    try {
+      checkOwned(key);
+      faultIn(key);
+      Object previous = data.get(key);
+      Object result = data.merge(key, value, remappingFunction);
+      afterUpdate(key, previous, result);
+      return result;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void putAll(Map<?, ?> m) {
+    if (!isGuarded()) {
+      m.keySet().forEach(this::checkOwned);
+      data.putAll(m);
+      m.keySet().forEach(this::afterUnguarded);
+      return;
+    }
+
+    // Take the lock once for the whole batch, and check every key before writing any so that a batch is either
+    // written completely or not at all.
+    lock.lock();
+
+    try {
+      m.keySet().forEach(this::checkOwned);
+
+      for (Map.Entry<?, ?> entry : m.entrySet()) {
+        faultIn(entry.getKey());
+        Object previous = data.put(entry.getKey(), entry.getValue());
+        afterWrite(entry.getKey(), previous, entry.getValue());
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    if (!isGuarded()) {
+      data.clear();
+
+      if (!isGuarded()) {
+        return;
+      }
+    }
+
+    lock.lock();
+
+    try {
+      data.clear();
+
+      if (policy != null) {
+        reads.drain(key -> {});
+        policy.clear();
+      }
+
+      if (disk != null) {
+        disk.clear();
+      }
+
+      publish(EntryEvent.Type.CLEAR, null, null, null);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Apply a value handed over by another node, or drop the key if the value is null. The eviction policy is updated,
+   * but no events are published: the entry only changes owner.
+   */
+  void load(Object key, Object value) {
+    lock.lock();
+
+    try {
+      if (disk != null) {
+        disk.discard(key);
+      }
+
+      Object previous = value == null ? data.remove(key) : data.put(key, value);
+
+      if (policy == null) {
+        return;
+      }
+
+      if (value != null) {
+        policy.recordWrite(key, weigher.weigh(key, value));
+        evictIfNecessary();
+      }
+      else if (previous != null) {
+        policy.recordRemoval(key);
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Read a value without moving it into memory or counting it as an access.
+   */
+  Object peek(Object key) {
+    Object value = data.get(key);
+
+    if (value != null || disk == null) {
+      return value;
+    }
+
+    lock.lock();
+
+    try {
+      value = data.get(key);
+      return value != null ? value : disk.read(key);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  void close() {
+    if (disk != null) {
+      disk.close();
+    }
+  }
+
+  @Override
+  public int size() {
+    return data.size() + getSpilledSize();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return data.containsKey(key) || (disk != null && disk.contains(key));
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return data.containsValue(value) || (disk != null && values().stream().anyMatch(value::equals));
+  }
+
+  /**
+   * With a spill directory, the views below cover both tiers. Like the views of a ConcurrentHashMap, they may or may
+   * not reflect changes made while they are iterated, including keys moving between the tiers.
+   */
+  @Override
+  public Set<Object> keySet() {
+    if (disk == null) {
+      return Collections.unmodifiableSet(data.keySet());
+    }
+
+    return new AbstractSet<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        return Stream.concat(data.keySet().stream(), disk.keys().stream()).iterator();
+      }
+
+      @Override
+      public int size() {
+        return LocalStore.this.size();
+      }
+
+      @Override
+      public boolean contains(Object key) {
+        return containsKey(key);
+      }
+    };
+  }
+
+  @Override
+  public Collection<Object> values() {
+    if (disk == null) {
+      return Collections.unmodifiableCollection(data.values());
+    }
+
+    return new AbstractCollection<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        return entrySet().stream().map(Entry::getValue).iterator();
+      }
+
+      @Override
+      public int size() {
+        return LocalStore.this.size();
+      }
+    };
+  }
+
+  @Override
+  public Set<Entry<Object, Object>> entrySet() {
+    if (disk == null) {
+      return Collections.unmodifiableSet(data.entrySet());
+    }
+
+    return new AbstractSet<Entry<Object, Object>>() {
+      @Override
+      public Iterator<Entry<Object, Object>> iterator() {
+        Stream<Entry<Object, Object>> spilled = disk.keys().stream()
+          .<Entry<Object, Object>>map(key -> new SimpleImmutableEntry<>(key, peek(key)))
+          .filter(entry -> entry.getValue() != null);
+
+        return Stream.concat(data.entrySet().stream(), spilled).iterator();
+      }
+
+      @Override
+      public int size() {
+        return LocalStore.this.size();
+      }
+    };
+  }
+
+  /**
+   * Mutations only need to take the store lock when there is an eviction policy to update or events to publish.
+   */
+  private boolean isGuarded() {
+    if (policy != null) {
+      return true;
+    }
+
+    for (StoreListener listener : listeners) {
+      if (listener.isActive()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void afterWrite(Object key, Object previous, Object value) {
+    if (policy != null) {
+      policy.recordWrite(key, weigher.weigh(key, value));
+    }
+
+    publish(EntryEvent.Type.PUT, key, previous, value);
+
+    if (policy != null) {
+      evictIfNecessary();
+    }
+  }
+
+  private void afterRemove(Object key, Object previous) {
+    if (previous == null) {
+      return;
+    }
+
+    if (policy != null) {
+      policy.recordRemoval(key);
+    }
+
+    publish(EntryEvent.Type.REMOVE, key, previous, null);
+  }
+
+  /**
+   * Report the outcome of a conditional or functional update. The update wrote to the store only if the resulting
+   * value is not the one that was there before.
+   */
+  private void afterUpdate(Object key, Object previous, Object result) {
+    if (result == null) {
+      afterRemove(key, previous);
+    }
+    else if (result != previous) {
+      afterWrite(key, previous, result);
+    }
+    else if (policy != null) {
+      policy.recordAccess(key);
+    }
+  }
+
+  /**
+   * Move a spilled entry back into memory. Returns the value of the key, wherever it was. Must be called with the store
+   * lock held.
+   */
+  private Object faultIn(Object key) {
+    Object value = data.get(key);
+
+    if (value != null || disk == null) {
+      return value;
+    }
+
+    // Make room first rather than after, so the entry cannot be spilled again before the caller gets to use it.
+    evictIfNecessary();
+    value = disk.remove(key);
+
+    if (value != null) {
+      data.put(key, value);
+      policy.recordWrite(key, weigher.weigh(key, value));
+    }
+
+    return value;
+  }
+
+  private void checkOwned(Object key) {
+    for (StoreListener listener : listeners) {
+      Node owner = listener.movedTo(key);
+
+      if (owner != null) {
+        throw new KeyMovedException(key, owner);
+      }
+    }
+  }
+
+  /**
+   * Report a write made without the store lock to listeners that became active while it ran, so that they cannot miss
+   * it. The previous value is no longer known by then.
+   */
+  private void afterUnguarded(Object key) {
+    if (!isGuarded()) {
+      return;
+    }
+
+    lock.lock();
+
+    try {
+      Object value = data.get(key);
+      publish(value == null ? EntryEvent.Type.REMOVE : EntryEvent.Type.PUT, key, null, value);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void publish(EntryEvent.Type type, Object key, Object oldValue, Object value) {
+    EntryEvent<Object, Object> event = null;
+
+    for (StoreListener listener : listeners) {
+      if (listener.isActive()) {
+        if (event == null) {
+          event = new EntryEvent<>(type, key, oldValue, value);
+        }
+
+        listener.onEvent(event);
+      }
+    }
+  }
+
+  /**
+   * Note a read for the eviction policy without taking the store lock. The notes are replayed by whoever takes the
+   * lock to evict, and by a reader that finds the buffer filling up and the lock free.
+   */
+  private void recordRead(Object key) {
+    reads.offer(key);
+
+    if (reads.size() >= ReadBuffer.SIZE / 2 && lock.tryLock()) {
+      try {
+        reads.drain(policy::recordAccess);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void evictIfNecessary() {
+    reads.drain(policy::recordAccess);
+
+    while (policy.weightedSize() > capacity) {
+      Object victim = policy.evict();
+
+      if (victim == null) {
+        return;
+      }
+
+      Object value = data.remove(victim);
+
+      if (disk != null) {
+        // The entry is kept, just not in memory, so this is not an eviction.
+        if (value != null) {
+          disk.append(victim, value);
+        }
+
+        continue;
+      }
+
+      evictionCount.incrementAndGet();
+      publish(EntryEvent.Type.EVICT, victim, value, null);
+
+      if (evictionListener != null) {
+        evictionListener.onEviction(victim, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package jamsesso.meshmap;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing (linear probing) hash table of primitive long keys to primitive long values. The key 0 marks a
+ * free slot, so an entry for the key 0 is kept on the side.
+ */
+class LongLongStore {
+  private static final long FREE = 0L;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int size = 0;
+  private boolean hasZeroKey = false;
+  private long zeroValue = 0L;
+
+  LongLongStore() {
+    this.keys = new long[INITIAL_CAPACITY];
+    this.values = new long[INITIAL_CAPACITY];
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized boolean containsKey(long key) {
+    if (key == FREE) {
+      return hasZeroKey;
+    }
+
+    return keys[slotOf(key)] == key;
+  }
+
+  synchronized long get(long key, long absentValue) {
+    if (key == FREE) {
+      return hasZeroKey ? zeroValue : absentValue;
+    }
+
+    int slot = slotOf(key);
+    return keys[slot] == key ? values[slot] : absentValue;
+  }
+
+  synchronized long put(long key, long value, long absentValue) {
+    if (key == FREE) {
+      long previous = hasZeroKey ? zeroValue : absentValue;
+
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+
+      zeroValue = value;
+      return previous;
+    }
+
+    int slot = slotOf(key);
+
+    if (keys[slot] == key) {
+      long previous = values[slot];
+      values[slot] = value;
+      return previous;
+    }
+
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+
+    // Keep the load factor at or below 0.5 so that probe sequences stay short.
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+
+    return absentValue;
+  }
+
+  synchronized long remove(long key, long absentValue) {
+    if (key == FREE) {
+      if (!hasZeroKey) {
+        return absentValue;
+      }
+
+      hasZeroKey = false;
+      size--;
+      return zeroValue;
+    }
+
+    int slot = slotOf(key);
+
+    if (keys[slot] != key) {
+      return absentValue;
+    }
+
+    long previous = values[slot];
+    keys[slot] = FREE;
+    size--;
+    shiftKeysBack(slot);
+
+    return previous;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(keys, FREE);
+    hasZeroKey = false;
+    size = 0;
+  }
+
+  synchronized long[] keys() {
+    long[] result = new long[size];
+    int i = 0;
+
+    if (hasZeroKey) {
+      result[i++] = FREE;
+    }
+
+    for (long key : keys) {
+      if (key != FREE) {
+        result[i++] = key;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * A copy of the store, for callers that do slow work for each entry and must not hold the lock of the store meanwhile.
+   */
+  synchronized LongLongStore copy() {
+    LongLongStore copy = new LongLongStore();
+    copy.keys = keys.clone();
+    copy.values = values.clone();
+    copy.size = size;
+    copy.hasZeroKey = hasZeroKey;
+    copy.zeroValue = zeroValue;
+    return copy;
+  }
+
+  synchronized void forEach(EntryConsumer consumer) {
+    if (hasZeroKey) {
+      consumer.accept(FREE, zeroValue);
+    }
+
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != FREE) {
+        consumer.accept(keys[slot], values[slot]);
+      }
+    }
+  }
+
+  /**
+   * Find the slot holding the key, or the free slot where it would be inserted.
+   */
+  private int slotOf(long key) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+
+    while (keys[slot] != FREE && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  /**
+   * Backward shift deletion: move later entries of the probe sequence into the freed slot so that lookups never
+   * stop early at a hole.
+   */
+  private void shiftKeysBack(int freed) {
+    int mask = keys.length - 1;
+    int slot = (freed + 1) & mask;
+
+    while (keys[slot] != FREE) {
+      int ideal = mix(keys[slot]) & mask;
+
+      // Move the entry if its ideal slot is not cyclically within (freed, slot].
+      if (((slot - ideal) & mask) >= ((slot - freed) & mask)) {
+        keys[freed] = keys[slot];
+        values[freed] = values[slot];
+        keys[slot] = FREE;
+        freed = slot;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new long[capacity];
+    values = new long[capacity];
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        int slot = slotOf(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9e3779b97f4a7c15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @FunctionalInterface
+  interface EntryConsumer {
+    void accept(long key, long value);
+  }
+}
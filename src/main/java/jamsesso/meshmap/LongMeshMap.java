@@ -0,0 +1,24 @@
+package jamsesso.meshmap;
+
+/**
+ * A mesh map specialized for primitive long keys and values. Keys are never boxed and values travel over a fixed
+ * binary encoding instead of Java serialization. Methods that return a value return {@link #NO_ENTRY_VALUE} when the
+ * key is absent; use {@link #containsKey(long)} to tell an absent key apart from a stored zero.
+ */
+public interface LongMeshMap extends AutoCloseable {
+  long NO_ENTRY_VALUE = 0L;
+
+  int size();
+
+  boolean isEmpty();
+
+  boolean containsKey(long key);
+
+  long get(long key);
+
+  long put(long key, long value);
+
+  long remove(long key);
+
+  void clear();
+}
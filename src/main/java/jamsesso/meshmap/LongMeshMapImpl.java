@@ -0,0 +1,280 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Payloads use a fixed big-endian binary encoding rather than Java serialization:
+ *
+ * LONG_GET, LONG_REMOVE, LONG_CONTAINS_KEY: 8 byte key
+ * LONG_PUT: 8 byte key, 8 byte value
+ * LONG_VALUE (response): 1 byte found flag, 8 byte value
+ * LONG_KEY_SET (response): 8 bytes per key
+ */
+public class LongMeshMapImpl implements LongMeshMap, MessageHandler {
+  static final String TYPE_PREFIX = "LONG_";
+
+  private static final String TYPE_GET = "LONG_GET";
+  private static final String TYPE_PUT = "LONG_PUT";
+  private static final String TYPE_REMOVE = "LONG_REMOVE";
+  private static final String TYPE_VALUE = "LONG_VALUE";
+  private static final String TYPE_CLEAR = "LONG_CLEAR";
+  private static final String TYPE_KEY_SET = "LONG_KEY_SET";
+  private static final String TYPE_SIZE = "LONG_SIZE";
+  private static final String TYPE_CONTAINS_KEY = "LONG_CONTAINS_KEY";
+
+  private final String name;
+  private final CachedMeshMapCluster cluster;
+  private final MeshMapServer server;
+  private final Node self;
+  private final LongLongStore delegate;
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  public LongMeshMapImpl(MeshMapCluster cluster, MeshMapServer server, Node self) {
+    this(Message.DEFAULT_MAP, cluster, server, self);
+  }
+
+  public LongMeshMapImpl(String name, MeshMapCluster cluster, MeshMapServer server, Node self) {
+    this.name = name;
+    this.cluster = new CachedMeshMapCluster(cluster);
+    this.server = server;
+    this.self = self;
+    this.delegate = new LongLongStore();
+  }
+
+  @Override
+  public Message handle(Message message) {
+    switch (message.getType()) {
+      case Message.TYPE_HI:
+      case Message.TYPE_BYE: {
+        cluster.clearCache();
+        return Message.ACK;
+      }
+
+      case TYPE_GET: {
+        long key = ByteBuffer.wrap(message.getPayload()).getLong();
+
+        synchronized (delegate) {
+          return valueMessage(delegate.containsKey(key), delegate.get(key, NO_ENTRY_VALUE));
+        }
+      }
+
+      case TYPE_PUT: {
+        ByteBuffer payload = ByteBuffer.wrap(message.getPayload());
+        long key = payload.getLong();
+        long value = payload.getLong();
+
+        synchronized (delegate) {
+          boolean found = delegate.containsKey(key);
+          return valueMessage(found, delegate.put(key, value, NO_ENTRY_VALUE));
+        }
+      }
+
+      case TYPE_REMOVE: {
+        long key = ByteBuffer.wrap(message.getPayload()).getLong();
+
+        synchronized (delegate) {
+          boolean found = delegate.containsKey(key);
+          return valueMessage(found, delegate.remove(key, NO_ENTRY_VALUE));
+        }
+      }
+
+      case TYPE_CONTAINS_KEY: {
+        return delegate.containsKey(ByteBuffer.wrap(message.getPayload()).getLong()) ? Message.YES : Message.NO;
+      }
+
+      case TYPE_CLEAR: {
+        delegate.clear();
+        return Message.ACK;
+      }
+
+      case TYPE_SIZE: {
+        return new Message(TYPE_SIZE, ByteBuffer.allocate(4).putInt(delegate.size()).array());
+      }
+
+      case TYPE_KEY_SET: {
+        long[] keys = delegate.keys();
+        ByteBuffer payload = ByteBuffer.allocate(keys.length * 8);
+
+        for (long key : keys) {
+          payload.putLong(key);
+        }
+
+        return new Message(TYPE_KEY_SET, payload.array());
+      }
+
+      default: {
+        return Message.ACK;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    Message sizeMsg = new Message(TYPE_SIZE);
+
+    return delegate.size() + server.broadcast(sizeMsg.withMap(name)).entrySet().stream()
+      .map(Map.Entry::getValue)
+      .filter(response -> TYPE_SIZE.equals(response.getType()))
+      .mapToInt(Message::getPayloadAsInt)
+      .sum();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(long key) {
+    Node target = getNodeForKey(key);
+
+    if (target.equals(self)) {
+      // Key lives on the current node.
+      return delegate.containsKey(key);
+    }
+
+    return Message.YES.equals(send(target, new Message(TYPE_CONTAINS_KEY, keyPayload(key))));
+  }
+
+  @Override
+  public long get(long key) {
+    return get(key, getNodeForKey(key));
+  }
+
+  @Override
+  public long put(long key, long value) {
+    return put(key, value, getNodeForKey(key));
+  }
+
+  @Override
+  public long remove(long key) {
+    return remove(key, getNodeForKey(key));
+  }
+
+  @Override
+  public void clear() {
+    Message clearMsg = new Message(TYPE_CLEAR);
+    server.broadcast(clearMsg.withMap(name));
+    delegate.clear();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("LongMeshMapImpl(Local)[");
+    delegate.forEach((key, value) -> builder.append(key).append(':').append(value).append(", "));
+    return builder.append(']').toString();
+  }
+
+  public void open() throws MeshMapException {
+    Node successor = getSuccessorNode();
+
+    // If there is no successor, there is nothing to do.
+    if (successor == null) {
+      return;
+    }
+
+    // Ask the successor for their key set.
+    ByteBuffer keySet = ByteBuffer.wrap(send(successor, new Message(TYPE_KEY_SET)).getPayload());
+
+    // Transfer the keys from the successor node that should live on this node.
+    while (keySet.hasRemaining()) {
+      long key = keySet.getLong();
+
+      // The cluster view already includes this node, so routing tells which keys are now ours.
+      if (getNodeForKey(key).equals(self)) {
+        ByteBuffer response = ByteBuffer.wrap(send(successor, new Message(TYPE_REMOVE, keyPayload(key))).getPayload());
+
+        if (response.get() != 0) {
+          delegate.put(key, response.getLong(), NO_ENTRY_VALUE);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (closed.getAndSet(true)) {
+      return;
+    }
+
+    Node successor = getSuccessorNode();
+
+    // If there is no successor, there is nothing to do.
+    if (successor == null) {
+      return;
+    }
+
+    // Transfer the data from this node to the successor node, from a copy so that the puts go out without the lock of
+    // the store held.
+    delegate.copy().forEach((key, value) -> put(key, value, successor));
+  }
+
+  private Node getNodeForKey(long key) {
+    // Route exactly like a boxed Long key would be routed by MeshMapImpl.
+    return cluster.getNodeForHash(Long.hashCode(key) & Integer.MAX_VALUE);
+  }
+
+  private Node getSuccessorNode() {
+    return cluster.getSuccessorNode(self);
+  }
+
+  private long get(long key, Node target) {
+    if (target.equals(self)) {
+      // Value is stored on the local server.
+      return delegate.get(key, NO_ENTRY_VALUE);
+    }
+
+    return readValue(send(target, new Message(TYPE_GET, keyPayload(key))));
+  }
+
+  private long put(long key, long value, Node target) {
+    if (target.equals(self)) {
+      // Value is stored on the local server.
+      return delegate.put(key, value, NO_ENTRY_VALUE);
+    }
+
+    byte[] payload = ByteBuffer.allocate(16).putLong(key).putLong(value).array();
+    return readValue(send(target, new Message(TYPE_PUT, payload)));
+  }
+
+  private long remove(long key, Node target) {
+    if (target.equals(self)) {
+      // Value is stored on the local server.
+      return delegate.remove(key, NO_ENTRY_VALUE);
+    }
+
+    return readValue(send(target, new Message(TYPE_REMOVE, keyPayload(key))));
+  }
+
+  private Message send(Node target, Message message) {
+    try {
+      // Reads have no side effects, so a slow one can be sent twice.
+      boolean read = TYPE_GET.equals(message.getType()) || TYPE_CONTAINS_KEY.equals(message.getType());
+      return read ? server.hedge(target, message.withMap(name)) : server.message(target, message.withMap(name));
+    }
+    catch(IOException e) {
+      throw new MeshMapRuntimeException(e);
+    }
+  }
+
+  private static long readValue(Message response) {
+    if (!TYPE_VALUE.equals(response.getType())) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+    }
+
+    ByteBuffer payload = ByteBuffer.wrap(response.getPayload());
+    return payload.get() != 0 ? payload.getLong() : NO_ENTRY_VALUE;
+  }
+
+  private static Message valueMessage(boolean found, long value) {
+    byte[] payload = ByteBuffer.allocate(9).put((byte) (found ? 1 : 0)).putLong(value).array();
+    return new Message(TYPE_VALUE, payload);
+  }
+
+  private static byte[] keyPayload(long key) {
+    return ByteBuffer.allocate(8).putLong(key).array();
+  }
+}
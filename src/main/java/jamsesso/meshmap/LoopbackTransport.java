@@ -0,0 +1,89 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Hands messages for nodes running in the same JVM straight to their handlers, on the calling thread, without
+ * encoding a frame or opening a socket. Messages for any other node go through the remote transport, which is also
+ * bound so that nodes in other processes can still reach this one.
+ */
+public class LoopbackTransport implements Transport {
+  private static final Map<Node, MessageHandler> HANDLERS = new ConcurrentHashMap<>();
+
+  private final Transport remote;
+  private Node self;
+
+  public LoopbackTransport() {
+    this(new SocketTransport());
+  }
+
+  public LoopbackTransport(Transport remote) {
+    this.remote = remote;
+  }
+
+  @Override
+  public void bind(Node self, MessageHandler handler) throws IOException {
+    remote.bind(self, handler);
+    this.self = self;
+    HANDLERS.put(self, handler);
+  }
+
+  @Override
+  public void bind(Node self, MessageHandler handler, int maxConnections, Supplier<Message> busy) throws IOException {
+    remote.bind(self, handler, maxConnections, busy);
+    this.self = self;
+    HANDLERS.put(self, handler);
+  }
+
+  @Override
+  public Message send(Node node, Message message) throws IOException {
+    MessageHandler handler = HANDLERS.get(node);
+
+    if (handler == null) {
+      return remote.send(node, message);
+    }
+
+    return deliver(node, handler, message);
+  }
+
+  @Override
+  public int getVersion(Node node) throws IOException {
+    return HANDLERS.containsKey(node) ? Message.CURRENT_VERSION : remote.getVersion(node);
+  }
+
+  @Override
+  public Message send(Node node, Message message, TraceSpan span) throws IOException {
+    MessageHandler handler = HANDLERS.get(node);
+
+    if (handler == null) {
+      return remote.send(node, message, span);
+    }
+
+    Message response = deliver(node, handler, message);
+    span.stage("server.handle");
+    return response;
+  }
+
+  private static Message deliver(Node node, MessageHandler handler, Message message) throws IOException {
+    try {
+      Message response = handler.handle(message);
+      return response == null ? Message.ACK : response;
+    }
+    catch (RuntimeException e) {
+      // Fail the same way a remote node that dropped the connection would.
+      throw new IOException("Node failed to handle message: " + node, e);
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (self != null) {
+      HANDLERS.remove(self);
+    }
+
+    remote.close();
+  }
+}
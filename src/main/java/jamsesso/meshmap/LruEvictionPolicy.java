@@ -0,0 +1,60 @@
+package jamsesso.meshmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LruEvictionPolicy implements EvictionPolicy {
+  private final Map<Object, Long> weights = new LinkedHashMap<>(16, 0.75f, true);
+  private long weightedSize = 0;
+
+  public LruEvictionPolicy(long capacity) {
+    // Plain LRU does not need to know the capacity up front.
+  }
+
+  @Override
+  public void recordAccess(Object key) {
+    weights.get(key);
+  }
+
+  @Override
+  public void recordWrite(Object key, long weight) {
+    Long previous = weights.put(key, weight);
+    weightedSize += weight - (previous == null ? 0 : previous);
+  }
+
+  @Override
+  public void recordRemoval(Object key) {
+    Long previous = weights.remove(key);
+
+    if (previous != null) {
+      weightedSize -= previous;
+    }
+  }
+
+  @Override
+  public long weightedSize() {
+    return weightedSize;
+  }
+
+  @Override
+  public Object evict() {
+    Iterator<Map.Entry<Object, Long>> iterator = weights.entrySet().iterator();
+
+    if (!iterator.hasNext()) {
+      return null;
+    }
+
+    Map.Entry<Object, Long> eldest = iterator.next();
+    iterator.remove();
+    weightedSize -= eldest.getValue();
+
+    return eldest.getKey();
+  }
+
+  @Override
+  public void clear() {
+    weights.clear();
+    weightedSize = 0;
+  }
+}
@@ -0,0 +1,115 @@
+package jamsesso.meshmap;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A two level hash tree over the entries of a key range, for finding where two nodes' copies of the range differ
+ * without sending the entries. Keys fall into one of BUCKETS buckets by their hash. A bucket's digest is the sum of
+ * the digests of its entries, so it does not depend on the order they are visited in, and every GROUP_SIZE buckets
+ * are digested into a group. Comparing the group digests first, then the bucket digests of the groups that differ,
+ * finds the buckets that differ with traffic that grows with how much differs rather than with the size of the range.
+ *
+ * Entries are digested in their serialized form, so keys and values need no hashCode that is stable across JVMs.
+ */
+class MerkleTree {
+  static final int GROUP_SIZE = 32;
+  static final int GROUPS = 32;
+  static final int BUCKETS = GROUPS * GROUP_SIZE;
+
+  private final long[] buckets = new long[BUCKETS];
+  private final long[] groups = new long[GROUPS];
+
+  /**
+   * @param hasher Places a key on the ring, and so in a bucket.
+   * @param reader Reads the value of a key, or null if the key is gone.
+   */
+  MerkleTree(Collection<Object> keys, ToIntFunction<Object> hasher, Function<Object, Object> reader) {
+    for (Object key : keys) {
+      Object value = reader.apply(key);
+
+      if (value != null) {
+        buckets[bucket(hasher.applyAsInt(key))] += digest(key, value);
+      }
+    }
+
+    for (int group = 0; group < GROUPS; group++) {
+      long digest = 0;
+
+      for (int bucket = group * GROUP_SIZE; bucket < (group + 1) * GROUP_SIZE; bucket++) {
+        digest = digest * 31 + buckets[bucket];
+      }
+
+      groups[group] = mix(digest);
+    }
+  }
+
+  static int bucket(int hash) {
+    // The top bits of a spread of the hash, so that neighbouring hashes land in different buckets.
+    return (hash * 0x9e3779b9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(BUCKETS));
+  }
+
+  long[] getGroups() {
+    return groups.clone();
+  }
+
+  /**
+   * The digests of the buckets in the given groups, one group after another.
+   */
+  long[] getBuckets(int[] groups) {
+    long[] digests = new long[groups.length * GROUP_SIZE];
+
+    for (int i = 0; i < groups.length; i++) {
+      System.arraycopy(buckets, groups[i] * GROUP_SIZE, digests, i * GROUP_SIZE, GROUP_SIZE);
+    }
+
+    return digests;
+  }
+
+  /**
+   * The groups whose digests differ from the given ones.
+   */
+  int[] differingGroups(long[] other) {
+    return IntStream.range(0, GROUPS)
+      .filter(group -> groups[group] != other[group])
+      .toArray();
+  }
+
+  /**
+   * The buckets of the given groups whose digests differ from the given ones, as returned by getBuckets.
+   */
+  int[] differingBuckets(int[] groups, long[] other) {
+    long[] mine = getBuckets(groups);
+
+    return IntStream.range(0, mine.length)
+      .filter(i -> mine[i] != other[i])
+      .map(i -> groups[i / GROUP_SIZE] * GROUP_SIZE + i % GROUP_SIZE)
+      .toArray();
+  }
+
+  private static long digest(Object key, Object value) {
+    return mix(fnv(Message.toBytes(key)) * 31 + fnv(Message.toBytes(value)));
+  }
+
+  private static long fnv(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+
+    for (byte b : bytes) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+
+    return hash;
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb93fe1a85ec3L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
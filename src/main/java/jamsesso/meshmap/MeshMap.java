@@ -1,7 +1,46 @@
 package jamsesso.meshmap;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
 
 public interface MeshMap<K, V> extends Map<K, V>, AutoCloseable {
+  /**
+   * Get the values of many keys at once using a single request per owner node. Keys that are not present are left
+   * out of the result.
+   */
+  Map<K, V> getAll(Collection<? extends K> keys);
 
+  /**
+   * Listen for changes to the keys accepted by the filter (or to every key if the filter is null). Events are pushed
+   * by the nodes that own the keys, in order for any single key. The filter is evaluated on the owner nodes, so it
+   * must be Serializable. Listeners run on the server thread of this node and should return quickly.
+   */
+  UUID addEntryListener(Predicate<? super K> filter, EntryListener<K, V> listener);
+
+  void removeEntryListener(UUID id);
+
+  MeshMapStats getStats();
+
+  /**
+   * Have every node write the entries it owns to a partition file in the directory, all at the same time, then write
+   * a manifest of the partitions there. Each node resolves the directory on its own file system, so it should be
+   * shared or exist on every machine. Writes made while the snapshot runs may or may not be included.
+   */
+  SnapshotManifest snapshot(File directory);
+
+  /**
+   * Load a snapshot into this map. Every partition is read by one node, preferably the one that wrote it, which sends
+   * each entry straight to its current owner, so the cluster does not need to look like the one that took the
+   * snapshot. Returns the number of entries loaded.
+   */
+  long restore(File directory);
+
+  /**
+   * Block until every write buffered by this client has been delivered to its owner node. This is a no-op unless
+   * write-behind is enabled.
+   */
+  void flush();
 }
@@ -6,4 +6,6 @@ public interface MeshMapCluster {
   List<Node> getAllNodes();
 
   <K, V> MeshMap<K, V> join() throws MeshMapException;
+
+  <K, V> MeshMap<K, V> getMap(String name) throws MeshMapException;
 }
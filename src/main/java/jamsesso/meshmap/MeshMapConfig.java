@@ -0,0 +1,82 @@
+package jamsesso.meshmap;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+@Value
+@Builder
+public class MeshMapConfig {
+  public static final MeshMapConfig DEFAULT = MeshMapConfig.builder().build();
+
+  // Maximum total weight of the entries stored on each node. Unbounded by default.
+  @Builder.Default long capacity = Long.MAX_VALUE;
+  @Builder.Default Weigher weigher = Weigher.ENTRIES;
+  @Builder.Default LongFunction<EvictionPolicy> evictionPolicy = TinyLfuEvictionPolicy::new;
+  EvictionListener evictionListener;
+
+  // Move entries evicted from memory to log files in this directory instead of dropping them. Needs a capacity.
+  File spillDirectory;
+  @Builder.Default long spillSegmentSize = 64L * 1024 * 1024;
+
+  // Fraction of a segment that must be dead records before its live records are copied out and it is deleted.
+  @Builder.Default double spillCompactionThreshold = 0.5;
+
+  // Buffer puts to remote nodes and send them in batches, trading bounded staleness for throughput.
+  @Builder.Default boolean writeBehind = false;
+  @Builder.Default int writeBehindBatchSize = 1_000;
+  @Builder.Default int writeBehindMaxPending = 10_000;
+  @Builder.Default long writeBehindFlushInterval = 100;
+
+  // Maps a key to the key used for routing it. Must be the same on every node. Takes precedence over PartitionAware.
+  Function<Object, Object> partitionKeyExtractor;
+
+  // Count the reads of owned keys to find hot ones. Off by default, and always on when hotKeyReplication is enabled.
+  @Builder.Default boolean hotKeyTracking = false;
+
+  // A key read at least hotKeyThreshold times per hotKeyWindow milliseconds on its owner is reported as hot.
+  @Builder.Default long hotKeyThreshold = 1_000;
+  @Builder.Default long hotKeyWindow = 1_000;
+
+  // Let nodes cache the values of hot keys until the owner invalidates them or a window passes.
+  @Builder.Default boolean hotKeyReplication = false;
+
+  // Creates the transport each node uses to reach the others. Use LoopbackTransport::new to let nodes that share a
+  // JVM skip sockets.
+  @Builder.Default Supplier<Transport> transport = SocketTransport::new;
+
+  // How many times a call to another node is attempted when it cannot be delivered, and how long to wait in between.
+  @Builder.Default int retryAttempts = 3;
+  @Builder.Default Backoff retryBackoff = Backoff.exponential(10, 1_000);
+
+  // Retries and hedged reads are limited to this fraction of calls, plus a few per second, so that a struggling node
+  // is not buried under retries.
+  @Builder.Default double retryBudgetRatio = 0.2;
+  @Builder.Default int retryBudgetMinPerSecond = 10;
+
+  // Send a second copy of a read when the first has taken longer than this percentile of recent responses from the
+  // same node, and use whichever response arrives first.
+  @Builder.Default boolean hedgeReads = false;
+  @Builder.Default double hedgePercentile = 0.95;
+
+  // Let concurrent gets and containsKey calls for the same key share one request to its owner.
+  @Builder.Default boolean coalesceReads = true;
+
+  // Requests a node handles at once, and how many more may wait for a turn, before it answers BUSY. Scans and batches
+  // have smaller limits of their own so that they cannot crowd out point operations.
+  @Builder.Default int maxConcurrentRequests = 16;
+  @Builder.Default int maxQueuedRequests = 256;
+  @Builder.Default int maxConcurrentScans = 2;
+  @Builder.Default int maxQueuedScans = 16;
+
+  // Milliseconds a node that answered BUSY asks the sender to wait before trying again.
+  @Builder.Default int busyRetryAfter = 50;
+
+  // Fraction of calls to other nodes that are traced, and how many of the slowest traced calls each node keeps.
+  @Builder.Default double traceSampleRate = 0.01;
+  @Builder.Default int traceCapacity = 100;
+}
@@ -2,14 +2,26 @@ package jamsesso.meshmap;
 
 import lombok.Value;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import static java.lang.System.err;
+
 public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
   private static final String TYPE_PUT = "PUT";
   private static final String TYPE_GET = "GET";
@@ -20,41 +32,341 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
   private static final String TYPE_CONTAINS_KEY = "CONTAINS_KEY";
   private static final String TYPE_CONTAINS_VALUE = "CONTAINS_VALUE";
   private static final String TYPE_DUMP_ENTRIES = "DUMP_ENTRIES";
-
+  private static final String TYPE_PUT_IF_ABSENT = "PUT_IF_ABSENT";
+  private static final String TYPE_REPLACE = "REPLACE";
+  private static final String TYPE_REPLACE_IF = "REPLACE_IF";
+  private static final String TYPE_REMOVE_IF = "REMOVE_IF";
+  private static final String TYPE_COMPUTE = "COMPUTE";
+  private static final String TYPE_COMPUTE_IF_ABSENT = "COMPUTE_IF_ABSENT";
+  private static final String TYPE_COMPUTE_IF_PRESENT = "COMPUTE_IF_PRESENT";
+  private static final String TYPE_MERGE = "MERGE";
+  private static final String TYPE_PUT_ALL = "PUT_ALL";
+  private static final String TYPE_GET_ALL = "GET_ALL";
+  private static final String TYPE_SUBSCRIBE = "SUBSCRIBE";
+  private static final String TYPE_UNSUBSCRIBE = "UNSUBSCRIBE";
+  private static final String TYPE_SUBSCRIPTIONS = "SUBSCRIPTIONS";
+  private static final String TYPE_EVENTS = "EVENTS";
+  private static final String TYPE_GET_HOT = "GET_HOT";
+  private static final String TYPE_INVALIDATE = "INVALIDATE";
+  private static final String TYPE_MIGRATE = "MIGRATE";
+  private static final String TYPE_MIGRATE_DATA = "MIGRATE_DATA";
+  private static final String TYPE_LEAVE = "LEAVE";
+  private static final String TYPE_REDIRECT = "REDIRECT";
+  private static final String TYPE_DIGEST = "DIGEST";
+  private static final String TYPE_BUCKET_KEYS = "BUCKET_KEYS";
+  private static final int MAX_REDIRECTS = 3;
+  private static final int HANDOFF_BATCH_SIZE = 500;
+  private static final long HANDOFF_TIMEOUT = 30_000;
+  private static final long HANDOFF_RETRY_DELAY = 100;
+  private static final Predicate<Object> ALL_KEYS = (Predicate<Object> & Serializable) key -> true;
+
+  private final String name;
   private final CachedMeshMapCluster cluster;
   private final MeshMapServer server;
   private final Node self;
-  private final Map<Object, Object> delegate;
+  private final LocalStore delegate;
+  private final EventPublisher publisher;
+  private final Map<UUID, EntryListener<K, V>> listeners = new ConcurrentHashMap<>();
+  private final HotKeyTracker hotKeys;
+  private final Map<Object, CachedValue> nearCache = new ConcurrentHashMap<>();
+  private final AtomicLong nearCacheHits = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+  private final boolean hotKeyReplication;
+  private final long hotKeyWindow;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final WriteBehindBuffer writeBehind;
+  private final Function<Object, Object> partitionKeyExtractor;
+  private final Handoff handoff;
+  private final Snapshots snapshots;
+  private final AtomicLong transfersReceived = new AtomicLong();
+  private final AtomicLong failedHandoffs = new AtomicLong();
+  private final SingleFlight<Read> reads;
+  private volatile CountDownLatch incoming;
+
+  // A node that handed its range to this one while leaving, but is still part of this node's view of the cluster.
+  private volatile Node adopted;
+
+  // A leaving node that this node agreed to take the range of, until the range arrives.
+  private volatile Node accepting;
 
   public MeshMapImpl(MeshMapCluster cluster, MeshMapServer server, Node self) {
+    this(cluster, server, self, MeshMapConfig.DEFAULT);
+  }
+
+  public MeshMapImpl(MeshMapCluster cluster, MeshMapServer server, Node self, MeshMapConfig config) {
+    this(Message.DEFAULT_MAP, cluster, server, self, config);
+  }
+
+  public MeshMapImpl(String name, MeshMapCluster cluster, MeshMapServer server, Node self, MeshMapConfig config) {
+    this.name = name;
     this.cluster = new CachedMeshMapCluster(cluster);
     this.server = server;
     this.self = self;
-    this.delegate = new ConcurrentHashMap<>();
+    this.publisher = new EventPublisher(this::deliver, this::deliver);
+    this.hotKeys = new HotKeyTracker(config, key -> server.broadcast(new Message(TYPE_INVALIDATE, key).withMap(name)));
+    this.hotKeyReplication = config.isHotKeyReplication();
+    this.hotKeyWindow = config.getHotKeyWindow();
+    this.handoff = new Handoff(this::hash);
+    this.delegate = new LocalStore(config, publisher, hotKeys, handoff);
+    this.partitionKeyExtractor = config.getPartitionKeyExtractor();
+    this.writeBehind = config.isWriteBehind() ? new WriteBehindBuffer(config, this::putAll) : null;
+    this.snapshots = new Snapshots(name, this.cluster, server, self, delegate, (MeshMap<Object, Object>) this);
+    this.reads = config.isCoalesceReads() ? new SingleFlight<>() : null;
   }
 
   @Override
   public Message handle(Message message) {
+    try {
+      return dispatch(message);
+    }
+    catch (KeyMovedException e) {
+      // The write waited for the store while its key was handed over. Send it to the new owner.
+      return new Message(TYPE_REDIRECT, new Node[] {e.getOwner()});
+    }
+  }
+
+  private Message dispatch(Message message) {
     switch (message.getType()) {
       case Message.TYPE_HI:
       case Message.TYPE_BYE: {
         cluster.clearCache();
+        publisher.retainNodes(cluster.getAllNodes());
+
+        // Forget a handed over range once the new owner is gone. Until the handoff is settled the new owner is not in
+        // the view yet, because it is still joining.
+        Node target = handoff.getTarget();
+
+        if (target != null && handoff.isSettled() && !cluster.getAllNodes().contains(target)) {
+          handoff.reset();
+        }
+        else {
+          settle();
+        }
+
+        if (adopted != null && !cluster.getAllNodes().contains(adopted)) {
+          adopted = null;
+        }
+
+        if (accepting != null && !cluster.getAllNodes().contains(accepting)) {
+          accepting = null;
+        }
+
+        return Message.ACK;
+      }
+
+      case TYPE_MIGRATE: {
+        Node target = message.getPayload(Node.class);
+        HashRange range = cluster.getRange(target);
+
+        // A retried request must not start over: the keys handed over the first time are gone from here.
+        if (target.equals(handoff.getTarget())) {
+          return Message.ACK;
+        }
+
+        // Only hand over a range this node owns, and only one range at a time. The joining node looks for its
+        // successor again and asks that one, so it finds a node that joined or left meanwhile.
+        if (!self.equals(cluster.getNodeForHash(range.getUpper()))) {
+          return Message.NO;
+        }
+
+        List<Object> keys = startHandOff(target, range);
+
+        if (keys == null) {
+          return Message.NO;
+        }
+
+        // Hand the range over in the background so this node keeps answering requests meanwhile.
+        Thread thread = new Thread(() -> {
+          try {
+            handOff(target, range, keys);
+          }
+          catch (RuntimeException e) {
+            // Keep serving the range. The joining node gives up once the handoff stops making progress.
+            failedHandoffs.incrementAndGet();
+            err.println("Unable to hand keys over to node " + target + ": " + e);
+            handoff.reset();
+          }
+        }, "meshmap-handoff-" + target);
+
+        thread.setDaemon(true);
+        thread.start();
+        return Message.ACK;
+      }
+
+      case TYPE_MIGRATE_DATA: {
+        receive(message.getPayload(Transfer.class));
+        return Message.ACK;
+      }
+
+      case TYPE_LEAVE: {
+        return accept(message.getPayload(Node.class)) ? Message.ACK : Message.NO;
+      }
+
+      case TYPE_DIGEST: {
+        Probe probe = message.getPayload(Probe.class);
+        MerkleTree tree = new MerkleTree(keysIn(probe.getRange()), this::hash, delegate::peek);
+        long[] digests = probe.getIndexes() == null ? tree.getGroups() : tree.getBuckets(probe.getIndexes());
+
+        // Counts as progress of a handoff to this node, like the entries it is sent.
+        transfersReceived.incrementAndGet();
+        return new Message(TYPE_DIGEST, digests);
+      }
+
+      case TYPE_BUCKET_KEYS: {
+        Probe probe = message.getPayload(Probe.class);
+        Set<Integer> buckets = IntStream.of(probe.getIndexes()).boxed().collect(Collectors.toSet());
+        transfersReceived.incrementAndGet();
+
+        return new Message(TYPE_BUCKET_KEYS, keysIn(probe.getRange()).stream()
+          .filter(key -> buckets.contains(MerkleTree.bucket(hash(key))))
+          .toArray());
+      }
+
+      case TYPE_SUBSCRIBE: {
+        publisher.subscribe(message.getPayload(EventPublisher.Subscription.class));
+        return Message.ACK;
+      }
+
+      case TYPE_UNSUBSCRIBE: {
+        publisher.unsubscribe(message.getPayload(UUID.class));
+        return Message.ACK;
+      }
+
+      case TYPE_SUBSCRIPTIONS: {
+        return new Message(TYPE_SUBSCRIPTIONS, publisher.getSubscriptions());
+      }
+
+      case TYPE_EVENTS: {
+        publisher.receive(message.getPayload(EventPublisher.Notification[].class));
         return Message.ACK;
       }
 
       case TYPE_GET: {
         Object key = message.getPayload(Object.class);
-        return new Message(TYPE_GET, delegate.get(key));
+        Object value = delegate.get(key);
+
+        // Check ownership after reading, so a key handed over meanwhile is not reported as missing.
+        if (misrouted(message, key)) {
+          return redirect(key);
+        }
+
+        boolean hot = hotKeys.recordRead(key);
+        return new Message(hot && hotKeyReplication ? TYPE_GET_HOT : TYPE_GET, value);
+      }
+
+      case TYPE_INVALIDATE: {
+        nearCache.remove(message.getPayload(Object.class));
+        invalidationCount.incrementAndGet();
+
+        if (reads != null) {
+          reads.fence();
+        }
+        return Message.ACK;
       }
 
       case TYPE_PUT: {
         Entry entry = message.getPayload(Entry.class);
-        delegate.put(entry.getKey(), entry.getValue());
+
+        if (misrouted(message, entry.getKey())) {
+          return redirect(entry.getKey());
+        }
+
+        Object previous = delegate.put(entry.getKey(), entry.getValue());
+
+        // Nodes that predate version negotiation expect a plain acknowledgement.
+        return message.getVersion() == Message.VERSION_1 ? Message.ACK : new Message(TYPE_PUT, previous);
+      }
+
+      case TYPE_PUT_ALL: {
+        Entry[] entries = message.getPayload(Entry[].class);
+        Object[] keys = Stream.of(entries).map(Entry::getKey).toArray();
+
+        if (!Stream.of(keys).allMatch(this::owns)) {
+          return redirect(keys);
+        }
+
+        Map<Object, Object> batch = new LinkedHashMap<>();
+
+        for (Entry entry : entries) {
+          batch.put(entry.getKey(), entry.getValue());
+        }
+
+        delegate.putAll(batch);
         return Message.ACK;
       }
 
+      case TYPE_GET_ALL: {
+        Object[] keys = message.getPayload(Object[].class);
+        Entry[] entries = getAllLocal(Stream.of(keys));
+
+        if (!Stream.of(keys).allMatch(this::owns)) {
+          return redirect(keys);
+        }
+
+        return new Message(TYPE_GET_ALL, entries);
+      }
+
+      case TYPE_PUT_IF_ABSENT: {
+        Entry entry = message.getPayload(Entry.class);
+
+        if (!owns(entry.getKey())) {
+          return redirect(entry.getKey());
+        }
+
+        return new Message(TYPE_PUT_IF_ABSENT, delegate.putIfAbsent(entry.getKey(), entry.getValue()));
+      }
+
+      case TYPE_REPLACE: {
+        Entry entry = message.getPayload(Entry.class);
+
+        if (!owns(entry.getKey())) {
+          return redirect(entry.getKey());
+        }
+
+        return new Message(TYPE_REPLACE, delegate.replace(entry.getKey(), entry.getValue()));
+      }
+
+      case TYPE_REPLACE_IF: {
+        Replacement replacement = message.getPayload(Replacement.class);
+
+        if (!owns(replacement.getKey())) {
+          return redirect(replacement.getKey());
+        }
+
+        boolean replaced = delegate.replace(replacement.getKey(), replacement.getOldValue(), replacement.getNewValue());
+        return replaced ? Message.YES : Message.NO;
+      }
+
+      case TYPE_REMOVE_IF: {
+        Entry entry = message.getPayload(Entry.class);
+
+        if (!owns(entry.getKey())) {
+          return redirect(entry.getKey());
+        }
+
+        return delegate.remove(entry.getKey(), entry.getValue()) ? Message.YES : Message.NO;
+      }
+
+      case TYPE_COMPUTE:
+      case TYPE_COMPUTE_IF_ABSENT:
+      case TYPE_COMPUTE_IF_PRESENT:
+      case TYPE_MERGE: {
+        Remapping remapping = message.getPayload(Remapping.class);
+
+        if (!owns(remapping.getKey())) {
+          return redirect(remapping.getKey());
+        }
+
+        return new Message(message.getType(), remapLocal(message.getType(), remapping));
+      }
+
       case TYPE_REMOVE: {
         Object key = message.getPayload(Object.class);
+
+        if (misrouted(message, key)) {
+          return redirect(key);
+        }
+
         return new Message(TYPE_REMOVE, delegate.remove(key));
       }
 
@@ -74,7 +386,13 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
 
       case TYPE_CONTAINS_KEY: {
         Object key = message.getPayload(Object.class);
-        return delegate.containsKey(key) ? Message.YES : Message.NO;
+        boolean found = delegate.containsKey(key);
+
+        if (misrouted(message, key)) {
+          return redirect(key);
+        }
+
+        return found ? Message.YES : Message.NO;
       }
 
       case TYPE_CONTAINS_VALUE: {
@@ -91,6 +409,15 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
         return new Message(TYPE_DUMP_ENTRIES, entries);
       }
 
+      case Snapshots.TYPE_SNAPSHOT:
+      case Snapshots.TYPE_RESTORE: {
+        return snapshots.start(message.getType(), message.getPayload(Snapshots.Task.class));
+      }
+
+      case Snapshots.TYPE_JOB: {
+        return snapshots.poll(message.getPayload(UUID.class));
+      }
+
       default: {
         return Message.ACK;
       }
@@ -99,9 +426,10 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
 
   @Override
   public int size() {
+    flush();
     Message sizeMsg = new Message(TYPE_SIZE);
 
-    return delegate.size() + server.broadcast(sizeMsg).entrySet().stream()
+    return delegate.size() + server.broadcast(sizeMsg.withMap(name)).entrySet().stream()
       .map(Map.Entry::getValue)
       .filter(response -> TYPE_SIZE.equals(response.getType()))
       .mapToInt(Message::getPayloadAsInt)
@@ -115,28 +443,25 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
 
   @Override
   public boolean containsKey(Object key) {
-    Node target = getNodeForKey(key);
-
-    if (target.equals(self)) {
-      // Key lives on the current node.
-      return delegate.containsKey(key);
-    }
-
-    Message containsKeyMsg = new Message(TYPE_CONTAINS_KEY, key);
-    Message response;
+    return routed(getNodeForKey(key), target -> {
+      if (target.equals(self)) {
+        // Key lives on the current node.
+        return checkOwned(key, delegate.containsKey(key));
+      }
 
-    try {
-      response = server.message(target, containsKeyMsg);
-    }
-    catch(IOException e) {
-      throw new MeshMapRuntimeException(e);
-    }
+      if (writeBehind != null && writeBehind.get(target, key) != null) {
+        return true;
+      }
 
-    return Message.YES.equals(response);
+      return coalesce(new Read(target, TYPE_CONTAINS_KEY, key),
+        () -> Message.YES.equals(send(target, new Message(TYPE_CONTAINS_KEY, key))));
+    });
   }
 
   @Override
   public boolean containsValue(Object value) {
+    flush();
+
     if (delegate.containsValue(value)) {
       // Check locally first.
       return true;
@@ -144,43 +469,150 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
 
     Message containsValueMsg = new Message(TYPE_CONTAINS_VALUE, value);
 
-    return server.broadcast(containsValueMsg).entrySet().stream()
+    return server.broadcast(containsValueMsg.withMap(name)).entrySet().stream()
       .map(Map.Entry::getValue)
       .anyMatch(Message.YES::equals);
   }
 
   @Override
   public V get(Object key) {
-    return (V) get(key, getNodeForKey(key));
+    return (V) routed(getNodeForKey(key), target -> get(key, target));
+  }
+
+  @Override
+  public Map<K, V> getAll(Collection<? extends K> keys) {
+    Map<Node, List<Object>> keysByNode = keys.stream()
+      .distinct()
+      .collect(Collectors.groupingBy(this::getNodeForKey));
+
+    return Threads.fanOut(keysByNode.entrySet(), entry -> getAll(entry.getValue(), entry.getKey(), 0)).stream()
+      .flatMap(Stream::of)
+      .collect(Collectors.toMap(entry -> (K) entry.getKey(), entry -> (V) entry.getValue()));
   }
 
   @Override
   public V put(K key, V value) {
-    put(key, value, getNodeForKey(key));
-    return value;
+    nearCache.remove(key);
+    return (V) routed(getNodeForKey(key), target -> put(key, value, target));
   }
 
   @Override
   public V remove(Object key) {
-    return (V) remove(key, getNodeForKey(key));
+    nearCache.remove(key);
+    return (V) routed(getNodeForKey(key), target -> remove(key, target));
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    nearCache.remove(key);
+    return (V) routed(getNodeForKey(key), target -> {
+      flushPending(target);
+
+      if (target.equals(self)) {
+        return delegate.putIfAbsent(key, value);
+      }
+
+      return call(target, new Message(TYPE_PUT_IF_ABSENT, new Entry(key, value)));
+    });
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    nearCache.remove(key);
+    return (V) routed(getNodeForKey(key), target -> {
+      flushPending(target);
+
+      if (target.equals(self)) {
+        return delegate.replace(key, value);
+      }
+
+      return call(target, new Message(TYPE_REPLACE, new Entry(key, value)));
+    });
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    nearCache.remove(key);
+    return routed(getNodeForKey(key), target -> {
+      flushPending(target);
+
+      if (target.equals(self)) {
+        return delegate.replace(key, oldValue, newValue);
+      }
+
+      return Message.YES.equals(send(target, new Message(TYPE_REPLACE_IF, new Replacement(key, oldValue, newValue))));
+    });
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    nearCache.remove(key);
+    return routed(getNodeForKey(key), target -> {
+      flushPending(target);
+
+      if (target.equals(self)) {
+        return delegate.remove(key, value);
+      }
+
+      return Message.YES.equals(send(target, new Message(TYPE_REMOVE_IF, new Entry(key, value))));
+    });
+  }
+
+  @Override
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return (V) remap(TYPE_COMPUTE, new Remapping(key, null, Objects.requireNonNull(remappingFunction)));
+  }
+
+  @Override
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    return (V) remap(TYPE_COMPUTE_IF_ABSENT, new Remapping(key, null, Objects.requireNonNull(mappingFunction)));
+  }
+
+  @Override
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    return (V) remap(TYPE_COMPUTE_IF_PRESENT, new Remapping(key, null, Objects.requireNonNull(remappingFunction)));
+  }
+
+  @Override
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    return (V) remap(TYPE_MERGE, new Remapping(key, value, Objects.requireNonNull(remappingFunction)));
   }
 
   @Override
   public void putAll(Map<? extends K, ? extends V> m) {
-    m.entrySet().parallelStream().forEach(entry -> put(entry.getKey(), entry.getValue()));
+    if (writeBehind != null) {
+      m.forEach(this::put);
+      return;
+    }
+
+    Map<Object, Object> entries = new HashMap<>(m);
+    Map<Node, List<Object>> keysByNode = entries.keySet().stream()
+      .collect(Collectors.groupingBy(this::getNodeForKey));
+
+    Threads.fanOut(keysByNode.entrySet(), entry -> {
+      putAll(entry.getKey(), entry.getValue(), entries, 0);
+      return null;
+    });
   }
 
   @Override
   public void clear() {
+    flush();
+    nearCache.clear();
     Message clearMsg = new Message(TYPE_CLEAR);
-    server.broadcast(clearMsg);
+    server.broadcast(clearMsg.withMap(name));
     delegate.clear();
+
+    if (reads != null) {
+      reads.fence();
+    }
   }
 
   @Override
   public Set<K> keySet() {
-    return cluster.getAllNodes().parallelStream()
-      .map(this::keySet)
+    flush();
+
+    return Threads.fanOut(cluster.getAllNodes(), this::keySet).stream()
       .flatMap(Stream::of)
       .map(object -> (K) object)
       .collect(Collectors.toSet());
@@ -195,6 +627,7 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
 
   @Override
   public Set<Map.Entry<K, V>> entrySet() {
+    flush();
     Message dumpEntriesMsg = new Message(TYPE_DUMP_ENTRIES);
     Set<Map.Entry<K, V>> entries = new HashSet<>();
 
@@ -202,7 +635,7 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
       entries.add(new TypedEntry<>((K) localEntry.getKey(), (V) localEntry.getValue()));
     }
 
-    for (Map.Entry<Node, Message> response : server.broadcast(dumpEntriesMsg).entrySet()) {
+    for (Map.Entry<Node, Message> response : server.broadcast(dumpEntriesMsg.withMap(name)).entrySet()) {
       Entry[] remoteEntries = response.getValue().getPayload(Entry[].class);
 
       for (Entry remoteEntry : remoteEntries) {
@@ -214,46 +647,68 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
   }
 
   @Override
-  public String toString() {
-    return "MeshMapImpl(Local)[" + String.join(", ", delegate.entrySet().stream()
-      .map(entry -> entry.getKey() + ":" + entry.getValue())
-      .collect(Collectors.toList()).toArray(new String[0])) + "]";
-  }
+  public UUID addEntryListener(Predicate<? super K> filter, EntryListener<K, V> listener) {
+    Predicate<Object> keyFilter = filter == null ? ALL_KEYS : (Predicate<Object>) checkSerializable(filter);
+    EventPublisher.Subscription subscription = new EventPublisher.Subscription(UUID.randomUUID(), self, keyFilter);
 
-  public void open() throws MeshMapException {
-    Node successor = getSuccessorNode();
+    listeners.put(subscription.getId(), listener);
+    publisher.subscribe(subscription);
+    server.broadcast(new Message(TYPE_SUBSCRIBE, subscription).withMap(name));
 
-    // If there is no successor, there is nothing to do.
-    if (successor == null) {
+    return subscription.getId();
+  }
+
+  @Override
+  public void removeEntryListener(UUID id) {
+    if (listeners.remove(id) == null) {
       return;
     }
 
-    // Ask the successor for their key set.
-    Object[] keySet = keySet(successor);
-
-    // Transfer the keys from the successor node that should live on this node.
-    List<Object> keysToTransfer = Stream.of(keySet)
-      .filter(key -> {
-        int hash = key.hashCode() & Integer.MAX_VALUE;
+    publisher.unsubscribe(id);
+    server.broadcast(new Message(TYPE_UNSUBSCRIBE, id).withMap(name));
+  }
 
-        if (self.getId() > successor.getId()) {
-          // The successor is the first node (circular node list)
-          return hash <= self.getId() && hash > successor.getId();
-        }
+  @Override
+  public void flush() {
+    if (writeBehind != null) {
+      writeBehind.flush();
+    }
+  }
 
-        return hash <= self.getId();
-      })
-      .collect(Collectors.toList());
+  @Override
+  public SnapshotManifest snapshot(File directory) {
+    flush();
+    return snapshots.snapshot(directory);
+  }
 
-    // Store the values on the current node.
-    keysToTransfer.forEach(key -> delegate.put(key, get(key, successor)));
+  @Override
+  public long restore(File directory) {
+    return snapshots.restore(directory);
+  }
 
-    // Delete the keys from the remote node now that the keys are transferred.
-    keysToTransfer.forEach(key -> remove(key, successor));
+  @Override
+  public MeshMapStats getStats() {
+    return new MeshMapStats(
+      delegate.size(),
+      delegate.getEvictionCount(),
+      delegate.getSpilledSize(),
+      delegate.getFailedCompactions(),
+      hotKeys.getHotKeys(),
+      nearCacheHits.get(),
+      reads == null ? 0 : reads.getMergedCount(),
+      publisher.getFilterFailures(),
+      publisher.getDroppedEvents(),
+      failedHandoffs.get());
   }
 
   @Override
-  public void close() throws Exception {
+  public String toString() {
+    return "MeshMapImpl(Local)[" + String.join(", ", delegate.entrySet().stream()
+      .map(entry -> entry.getKey() + ":" + entry.getValue())
+      .collect(Collectors.toList()).toArray(new String[0])) + "]";
+  }
+
+  public void open() throws MeshMapException {
     Node successor = getSuccessorNode();
 
     // If there is no successor, there is nothing to do.
@@ -261,109 +716,623 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
       return;
     }
 
-    // Transfer the data from this node to the successor node.
-    delegate.forEach((key, value) -> put(key, value, successor));
-  }
+    if (server.isLegacy(successor)) {
+      takeKeysFrom(successor);
+      return;
+    }
 
-  private Node getNodeForKey(Object key) {
-    int hash = key.hashCode() & Integer.MAX_VALUE;
-    List<Node> nodes = cluster.getAllNodes();
+    // Every node publishes events for the keys it owns, so pick up the existing subscriptions.
+    Message subscriptions = send(successor, new Message(TYPE_SUBSCRIPTIONS));
+    Stream.of(subscriptions.getPayload(EventPublisher.Subscription[].class)).forEach(publisher::subscribe);
 
-    for (Node node : nodes) {
-      if (hash <= node.getId()) {
-        return node;
-      }
+    // The successor keeps serving our range while it copies it over, then redirects it here.
+    CountDownLatch latch = new CountDownLatch(1);
+    incoming = latch;
+    Node source = requestHandoff(successor);
+
+    if (source == null) {
+      incoming = null;
+      return;
     }
 
-    return nodes.get(0);
+    awaitHandoff(source, latch);
   }
 
-  private Node getSuccessorNode() {
-    List<Node> nodes = cluster.getAllNodes();
+  /**
+   * Ask the successor to hand our range over, and return the node that agreed to, or null if there is no other node
+   * left. A node that is busy handing a range to another node, or that is not our successor by its own view, says no,
+   * and is asked again once this node's view of the cluster has been refreshed.
+   */
+  private Node requestHandoff(Node successor) throws MeshMapException {
+    long deadline = System.currentTimeMillis() + HANDOFF_TIMEOUT;
+
+    while (successor != null) {
+      if (agrees(successor, new Message(TYPE_MIGRATE, self))) {
+        return successor;
+      }
 
-    if (nodes.size() <= 1) {
-      return null;
-    }
+      if (System.currentTimeMillis() > deadline) {
+        throw new MeshMapException("Timed out waiting for node " + successor + " to start handing its keys over");
+      }
 
-    int selfIndex = Collections.binarySearch(nodes, self, Comparator.comparingInt(Node::getId));
-    int successorIndex = selfIndex + 1;
+      try {
+        Thread.sleep(HANDOFF_RETRY_DELAY);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MeshMapException("Interrupted while waiting for node " + successor + " to hand its keys over", e);
+      }
 
-    // Find the successor node.
-    if (successorIndex > nodes.size() - 1) {
-      return nodes.get(0);
-    }
-    else {
-      return nodes.get(successorIndex);
+      cluster.clearCache();
+      successor = getSuccessorNode();
     }
+
+    return null;
   }
 
-  private Object get(Object key, Node target) {
-    if (target.equals(self)) {
-      // Value is stored on the local server.
-      return delegate.get(key);
+  @Override
+  public void close() throws Exception {
+    if (closed.getAndSet(true)) {
+      return;
     }
 
-    Message getMsg = new Message(TYPE_GET, key);
-    Message response;
+    Node successor = getSuccessorNode();
 
-    try {
-      response = server.message(target, getMsg);
+    // If there is no successor, there is nothing to transfer.
+    if (successor != null && server.isLegacy(successor)) {
+      // A node that predates the handoff protocol takes the data as ordinary puts.
+      flush();
+      new ArrayList<>(delegate.entrySet()).forEach(entry -> putNow(entry.getKey(), entry.getValue(), successor));
     }
-    catch(IOException e) {
-      throw new MeshMapRuntimeException(e);
+    else if (successor != null) {
+      // Transfer the data from this node to the successor node, serving it until the successor has all of it.
+      leave();
     }
 
-    if (!TYPE_GET.equals(response.getType())) {
-      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+    if (writeBehind != null) {
+      writeBehind.close();
     }
 
-    return response.getPayload(Object.class);
+    publisher.close();
+    hotKeys.close();
+    delegate.close();
   }
 
-  private Object put(Object key, Object value, Node target) {
-    if (target.equals(self)) {
-      // Value is stored on the local server.
-      return delegate.put(key, value);
-    }
-
-    Message putMsg = new Message(TYPE_PUT, new Entry(key, value));
-    Message response;
+  Node getNodeForKey(Object key) {
+    int hash = hash(key);
+    Node movedTo = handoff.redirect(hash);
 
-    try {
-      response = server.message(target, putMsg);
-    }
-    catch(IOException e) {
-      throw new MeshMapRuntimeException(e);
+    if (movedTo != null) {
+      return movedTo;
     }
 
-    if (!Message.ACK.equals(response)) {
-      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
-    }
+    Node owner = cluster.getNodeForHash(hash);
+    return owner.equals(adopted) ? self : owner;
+  }
 
-    return value;
+  private boolean owns(Object key) {
+    return getNodeForKey(key).equals(self);
   }
 
-  private Object remove(Object key, Node target) {
+  /**
+   * Whether a request for the key belongs to another node. Nodes that predate version negotiation cannot follow a
+   * redirect, so they are answered from whatever this node holds, as they always were.
+   */
+  private boolean misrouted(Message message, Object key) {
+    return message.getVersion() > Message.VERSION_1 && !owns(key);
+  }
+
+  /**
+   * Tell the sender which node owns each key, in the order the keys were sent.
+   */
+  private Message redirect(Object... keys) {
+    return new Message(TYPE_REDIRECT, Stream.of(keys).map(this::getNodeForKey).toArray(Node[]::new));
+  }
+
+  /**
+   * Move the keys this node now owns from a successor that predates the handoff protocol, the way such nodes join:
+   * remove each key from the successor and keep its value here.
+   */
+  private void takeKeysFrom(Node successor) {
+    for (Object key : keySet(successor)) {
+      if (owns(key)) {
+        Object value = call(successor, new Message(TYPE_REMOVE, key));
+
+        if (value != null) {
+          delegate.put(key, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Hand everything this node holds over to its successor. A handoff to a joining node that is still going on is
+   * allowed to end first, so that its range keeps being redirected until the view routes it to the joining node. The
+   * successor may turn the range down for the same reason, and is asked again once the view has been refreshed.
+   */
+  private void leave() {
+    while (true) {
+      // A node may have joined in between while waiting.
+      cluster.clearCache();
+      Node successor = getSuccessorNode();
+
+      if (successor == null) {
+        return;
+      }
+
+      HashRange range = cluster.getRange(self);
+      List<Object> keys = startHandOff(successor, range);
+
+      if (keys != null && agrees(successor, new Message(TYPE_LEAVE, self))) {
+        handOff(successor, range, keys);
+        return;
+      }
+
+      if (keys != null) {
+        handoff.reset();
+      }
+
+      try {
+        Thread.sleep(HANDOFF_RETRY_DELAY);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MeshMapRuntimeException("Interrupted while waiting for a handoff to end", e);
+      }
+    }
+  }
+
+  /**
+   * Start tracking the changes to the range and return the keys to copy to the target, or null if an earlier handoff
+   * is still copying or redirecting. Only one handoff is tracked at a time, so starting another one would lose the
+   * changes or the redirect of the earlier one.
+   */
+  private List<Object> startHandOff(Node target, HashRange range) {
+    delegate.getLock().lock();
+
+    try {
+      if (isBusy()) {
+        return null;
+      }
+
+      handoff.start(target, range);
+      return keysIn(range);
+    }
+    finally {
+      delegate.getLock().unlock();
+    }
+  }
+
+  /**
+   * Agree to take over the range of a leaving node, unless this node is handing a range over itself or still holds
+   * the range of another leaving node. Either way the range would end up with a node that a joining node does not
+   * take it from, because the view the handoffs were based on changes underneath them.
+   */
+  private boolean accept(Node source) {
+    delegate.getLock().lock();
+
+    try {
+      if (source.equals(accepting)) {
+        return true;
+      }
+
+      if (isBusy()) {
+        return false;
+      }
+
+      accepting = source;
+      return true;
+    }
+    finally {
+      delegate.getLock().unlock();
+    }
+  }
+
+  private boolean isBusy() {
+    return (handoff.isActive() && !handoff.isAbandoned(HANDOFF_TIMEOUT)) || accepting != null || adopted != null;
+  }
+
+  /**
+   * Copy the keys in the range to the target while still serving them, then send the keys that changed meanwhile
+   * and start redirecting the range, without letting a write slip in between. Only the buckets of the range that the
+   * target does not already hold exactly are copied, so a retried or repeated handoff sends little more than what
+   * changed.
+   */
+  private void handOff(Node target, HashRange range, List<Object> keys) {
+    // Every key present when the copy started is sent, and every key that changed after that is sent again.
+    sync(target, range, keys);
+    delegate.getLock().lock();
+
+    try {
+      boolean cleared = handoff.wasCleared();
+      List<Object> changed = cleared ? keysIn(range) : handoff.getDirty();
+      List<Entry> batch = new ArrayList<>(changed.size());
+
+      // If the store was cleared, everything sent so far may be stale, so the target starts over from what is here now.
+      for (Object key : changed) {
+        batch.add(new Entry(key, delegate.peek(key)));
+      }
+
+      transfer(target, new Transfer(self, range, cleared, true, batch.toArray(new Entry[0])));
+      handoff.finish();
+      keysIn(range).forEach(key -> delegate.load(key, null));
+    }
+    finally {
+      delegate.getLock().unlock();
+    }
+
+    // The target may have said hello before the handoff finished.
+    cluster.clearCache();
+    settle();
+  }
+
+  /**
+   * Stop redirecting a handed over range once the view routes it to the new owner by itself.
+   */
+  private void settle() {
+    HashRange range = handoff.getRange();
+    Node target = handoff.getTarget();
+
+    if (range != null && target != null && !handoff.isCopying() && target.equals(cluster.getNodeForHash(range.getUpper()))) {
+      handoff.settle();
+    }
+  }
+
+  /**
+   * Make the target's copy of the range match the given keys of this node. Digests of the range on both nodes are
+   * compared to find the buckets that differ, and only those are sent, including removals of keys the target holds
+   * in them but this node does not. Keys that change meanwhile are left to the dirty keys of the handoff.
+   */
+  private void sync(Node target, HashRange range, List<Object> keys) {
+    MerkleTree tree = new MerkleTree(keys, this::hash, delegate::peek);
+    int[] groups = tree.differingGroups(digest(target, new Probe(range, null)));
+
+    if (groups.length == 0) {
+      return;
+    }
+
+    int[] buckets = tree.differingBuckets(groups, digest(target, new Probe(range, groups)));
+    Set<Integer> differing = IntStream.of(buckets).boxed().collect(Collectors.toSet());
+    Message response = send(target, new Message(TYPE_BUCKET_KEYS, new Probe(range, buckets)));
+
+    if (!TYPE_BUCKET_KEYS.equals(response.getType())) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node during a handoff: " + response);
+    }
+
+    Set<Object> stale = new HashSet<>(Arrays.asList(response.getPayload(Object[].class)));
+    List<Entry> batch = new ArrayList<>(HANDOFF_BATCH_SIZE);
+
+    for (Object key : keys) {
+      if (!differing.contains(MerkleTree.bucket(hash(key)))) {
+        continue;
+      }
+
+      stale.remove(key);
+      Object value = delegate.peek(key);
+
+      if (value != null) {
+        batch.add(new Entry(key, value));
+      }
+
+      if (batch.size() == HANDOFF_BATCH_SIZE) {
+        transfer(target, new Transfer(self, range, false, false, batch.toArray(new Entry[0])));
+        batch.clear();
+      }
+    }
+
+    // A null value drops the key.
+    for (Object key : stale) {
+      batch.add(new Entry(key, null));
+
+      if (batch.size() == HANDOFF_BATCH_SIZE) {
+        transfer(target, new Transfer(self, range, false, false, batch.toArray(new Entry[0])));
+        batch.clear();
+      }
+    }
+
+    if (!batch.isEmpty()) {
+      transfer(target, new Transfer(self, range, false, false, batch.toArray(new Entry[0])));
+    }
+  }
+
+  private long[] digest(Node target, Probe probe) {
+    Message response = send(target, new Message(TYPE_DIGEST, probe));
+
+    if (!TYPE_DIGEST.equals(response.getType())) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node during a handoff: " + response);
+    }
+
+    return response.getPayload(long[].class);
+  }
+
+  private void transfer(Node target, Transfer transfer) {
+    if (!Message.ACK.equals(send(target, new Message(TYPE_MIGRATE_DATA, transfer)))) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node during a handoff");
+    }
+  }
+
+  private void receive(Transfer transfer) {
+    if (transfer.getSource().equals(handoff.getTarget())) {
+      // The range comes back from the node it was handed to.
+      handoff.reset();
+    }
+
+    if (transfer.isClear()) {
+      keysIn(transfer.getRange()).forEach(key -> delegate.load(key, null));
+    }
+
+    for (Entry entry : transfer.getEntries()) {
+      delegate.load(entry.getKey(), entry.getValue());
+    }
+
+    transfersReceived.incrementAndGet();
+
+    if (!transfer.isDone()) {
+      return;
+    }
+
+    // A leaving node is still in the view until it says goodbye, so own its range on its behalf until then. The range
+    // of a joining node is its own, which its view does not route to it only because it is not visible yet.
+    boolean leaving = transfer.getRange().getUpper() != self.getId();
+
+    if (leaving && !cluster.getNodeForHash(transfer.getRange().getUpper()).equals(self)) {
+      adopted = transfer.getSource();
+    }
+
+    if (transfer.getSource().equals(accepting)) {
+      accepting = null;
+    }
+
+    CountDownLatch latch = incoming;
+
+    if (latch != null) {
+      latch.countDown();
+    }
+  }
+
+  private void awaitHandoff(Node source, CountDownLatch latch) throws MeshMapException {
+    long progress = -1;
+
+    try {
+      // Give up only once the source stops making progress.
+      while (!latch.await(HANDOFF_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        if (transfersReceived.get() == progress) {
+          throw new MeshMapException("Timed out waiting for node " + source + " to hand its keys over");
+        }
+
+        progress = transfersReceived.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MeshMapException("Interrupted while waiting for node " + source + " to hand its keys over", e);
+    }
+    finally {
+      incoming = null;
+    }
+  }
+
+  private List<Object> keysIn(HashRange range) {
+    return delegate.keySet().stream()
+      .filter(key -> range.contains(hash(key)))
+      .collect(Collectors.toList());
+  }
+
+  private int hash(Object key) {
+    Object partitionKey = null;
+
+    if (partitionKeyExtractor != null) {
+      partitionKey = partitionKeyExtractor.apply(key);
+    }
+    else if (key instanceof PartitionAware) {
+      partitionKey = ((PartitionAware) key).getPartitionKey();
+    }
+
+    return (partitionKey != null ? partitionKey : key).hashCode() & Integer.MAX_VALUE;
+  }
+
+  private Node getSuccessorNode() {
+    return cluster.getSuccessorNode(self);
+  }
+
+  private Object get(Object key, Node target) {
     if (target.equals(self)) {
       // Value is stored on the local server.
-      return delegate.remove(key);
+      hotKeys.recordRead(key);
+      return checkOwned(key, delegate.get(key));
     }
 
-    Message removeMsg = new Message(TYPE_REMOVE, key);
-    Message response;
+    if (writeBehind != null) {
+      Object pending = writeBehind.get(target, key);
 
-    try {
-      response = server.message(target, removeMsg);
+      if (pending != null) {
+        return pending;
+      }
     }
-    catch(IOException e) {
-      throw new MeshMapRuntimeException(e);
+
+    CachedValue cached = nearCache.get(key);
+
+    if (cached != null && cached.getExpiresAt() > System.currentTimeMillis()) {
+      nearCacheHits.incrementAndGet();
+      return cached.getValue();
     }
 
-    if (!TYPE_REMOVE.equals(response.getType())) {
+    return coalesce(new Read(target, TYPE_GET, key), () -> fetch(key, target));
+  }
+
+  private Object fetch(Object key, Node target) {
+    long invalidationsBefore = invalidationCount.get();
+    Message response = send(target, new Message(TYPE_GET, key));
+
+    if (!TYPE_GET.equals(response.getType()) && !TYPE_GET_HOT.equals(response.getType())) {
       throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
     }
 
-    return response.getPayload(Object.class);
+    Object value = response.getPayload(Object.class);
+
+    // Cache hot values, unless an invalidation may have raced with the response.
+    if (TYPE_GET_HOT.equals(response.getType()) && value != null && invalidationCount.get() == invalidationsBefore) {
+      nearCache.put(key, new CachedValue(value, System.currentTimeMillis() + hotKeyWindow));
+    }
+
+    return value;
+  }
+
+  private Object put(Object key, Object value, Node target) {
+    if (writeBehind != null && !target.equals(self)) {
+      // The previous value is not known until the owner applies the write, so report the buffered one instead.
+      return writeBehind.put(target, key, value);
+    }
+
+    return putNow(key, value, target);
+  }
+
+  private Object putNow(Object key, Object value, Node target) {
+    if (target.equals(self)) {
+      // Value is stored on the local server.
+      return delegate.put(key, value);
+    }
+
+    if (server.isLegacy(target)) {
+      // Nodes that predate version negotiation acknowledge a put without returning the previous value.
+      Message response = send(target, new Message(TYPE_PUT, new Entry(key, value)));
+
+      if (!Message.ACK.equals(response)) {
+        throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+      }
+
+      return null;
+    }
+
+    return call(target, new Message(TYPE_PUT, new Entry(key, value)));
+  }
+
+  private Object remove(Object key, Node target) {
+    if (target.equals(self)) {
+      // Value is stored on the local server.
+      return delegate.remove(key);
+    }
+
+    flushPending(target);
+    return call(target, new Message(TYPE_REMOVE, key));
+  }
+
+  private Entry[] getAll(List<Object> keys, Node target, int redirects) {
+    Node[] owners;
+
+    if (target.equals(self)) {
+      Entry[] entries = getAllLocal(keys.stream());
+
+      // Check ownership after reading, like a remote owner does.
+      if (keys.stream().allMatch(this::owns)) {
+        return entries;
+      }
+
+      owners = keys.stream().map(this::getNodeForKey).toArray(Node[]::new);
+    }
+    else if (server.isLegacy(target)) {
+      // Nodes that predate version negotiation have no batched reads.
+      return keys.stream()
+        .map(key -> new Entry(key, get(key, target)))
+        .filter(entry -> entry.getValue() != null)
+        .toArray(Entry[]::new);
+    }
+    else {
+      // Deliver buffered writes first so that the owner's answer includes them.
+      flushPending(target);
+
+      long epoch = cluster.getEpoch();
+      Message response = request(target, new Message(TYPE_GET_ALL, keys.toArray()));
+
+      if (TYPE_GET_ALL.equals(response.getType())) {
+        return response.getPayload(Entry[].class);
+      }
+
+      owners = redirected(response, epoch);
+    }
+
+    return Threads.fanOut(regroup(keys, owners, redirects).entrySet(),
+        entry -> getAll(entry.getValue(), entry.getKey(), redirects + 1)).stream()
+      .flatMap(Stream::of)
+      .toArray(Entry[]::new);
+  }
+
+  private Entry[] getAllLocal(Stream<Object> keys) {
+    return keys
+      .map(key -> new Entry(key, delegate.get(key)))
+      .filter(entry -> entry.getValue() != null)
+      .toArray(Entry[]::new);
+  }
+
+  /**
+   * Write a batch of entries routed to the target in one request, following any of them that moved. Bypasses
+   * write-behind.
+   */
+  void putAll(Node target, Map<Object, Object> entries) {
+    putAll(target, new ArrayList<>(entries.keySet()), entries, 0);
+  }
+
+  private void putAll(Node target, List<Object> keys, Map<Object, Object> entries, int redirects) {
+    if (target.equals(self)) {
+      Map<Object, Object> batch = new LinkedHashMap<>();
+      keys.forEach(key -> batch.put(key, entries.get(key)));
+
+      try {
+        delegate.putAll(batch);
+      }
+      catch (KeyMovedException e) {
+        // Nothing was written. Write each key on its own so that the ones that moved are followed.
+        keys.forEach(key -> routed(self, owner -> putNow(key, entries.get(key), owner)));
+      }
+
+      return;
+    }
+
+    if (server.isLegacy(target)) {
+      // Nodes that predate version negotiation have no batched writes.
+      keys.forEach(key -> putNow(key, entries.get(key), target));
+      return;
+    }
+
+    Entry[] batch = keys.stream()
+      .map(key -> new Entry(key, entries.get(key)))
+      .toArray(Entry[]::new);
+
+    long epoch = cluster.getEpoch();
+    Message response = request(target, new Message(TYPE_PUT_ALL, batch));
+
+    if (Message.ACK.equals(response)) {
+      return;
+    }
+
+    regroup(keys, redirected(response, epoch), redirects)
+      .forEach((owner, group) -> putAll(owner, group, entries, redirects + 1));
+  }
+
+  private void deliver(Node subscriber, EventPublisher.Notification[] notifications) {
+    if (subscriber.equals(self)) {
+      deliver(notifications);
+    }
+    else if (!Message.ACK.equals(send(subscriber, new Message(TYPE_EVENTS, notifications)))) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node while delivering events");
+    }
+  }
+
+  private void deliver(EventPublisher.Notification[] notifications) {
+    for (EventPublisher.Notification notification : notifications) {
+      EntryListener<K, V> listener = listeners.get(notification.getSubscriptionId());
+
+      if (listener != null) {
+        listener.onEvent((EntryEvent<K, V>) notification.getEvent());
+      }
+    }
+  }
+
+  private void flushPending(Node target) {
+    // Conditional writes and removals must not overtake writes that are still buffered for the same node.
+    if (writeBehind != null) {
+      writeBehind.flush(target);
+    }
   }
 
   private Object[] keySet(Node target) {
@@ -375,7 +1344,7 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
     Message keySetMsg = new Message(TYPE_KEY_SET);
 
     try {
-      Message response = server.message(target, keySetMsg);
+      Message response = server.message(target, keySetMsg.withMap(name));
       return response.getPayload(Object[].class);
     }
     catch(IOException e) {
@@ -383,12 +1352,296 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
     }
   }
 
+  /**
+   * Run a functional update atomically on the node that owns the key. Local keys are updated in place, remote keys
+   * ship the function to the owner so that the whole read-modify-write takes a single round trip. A function that is
+   * not Serializable cannot be shipped, so remote keys fall back to an optimistic loop of conditional updates.
+   */
+  private Object remap(String type, Remapping remapping) {
+    nearCache.remove(remapping.getKey());
+
+    return routed(getNodeForKey(remapping.getKey()), target -> {
+      if (target.equals(self)) {
+        return remapLocal(type, remapping);
+      }
+
+      if (!(remapping.getFunction() instanceof Serializable)) {
+        return remapOptimistically(remapping.getKey(), asCompute(type, remapping));
+      }
+
+      flushPending(target);
+      return call(target, new Message(type, remapping));
+    });
+  }
+
+  /**
+   * Apply the update with get, putIfAbsent, replace and remove, retrying whenever another writer got in first, the way
+   * ConcurrentMap does by default. Each step is atomic on the owner, but the function may run more than once.
+   */
+  private Object remapOptimistically(Object key, BiFunction<Object, Object, Object> function) {
+    Object oldValue = get(key);
+
+    while (true) {
+      Object newValue = function.apply(key, oldValue);
+
+      // Nothing to write, e.g. computeIfAbsent for a key that is present.
+      if (newValue == oldValue) {
+        return newValue;
+      }
+
+      if (oldValue == null) {
+        Object current = putIfAbsent((K) key, (V) newValue);
+
+        if (current == null) {
+          return newValue;
+        }
+
+        oldValue = current;
+        continue;
+      }
+
+      if (newValue == null ? remove(key, oldValue) : replace((K) key, (V) oldValue, (V) newValue)) {
+        return newValue;
+      }
+
+      oldValue = get(key);
+    }
+  }
+
+  /**
+   * Express any of the functional updates as the function given to compute.
+   */
+  private static BiFunction<Object, Object, Object> asCompute(String type, Remapping remapping) {
+    Object function = remapping.getFunction();
+
+    switch (type) {
+      case TYPE_COMPUTE:
+        return (BiFunction<Object, Object, Object>) function;
+      case TYPE_COMPUTE_IF_ABSENT: {
+        Function<Object, Object> mapping = (Function<Object, Object>) function;
+        return (key, oldValue) -> oldValue != null ? oldValue : mapping.apply(key);
+      }
+      case TYPE_COMPUTE_IF_PRESENT: {
+        BiFunction<Object, Object, Object> remap = (BiFunction<Object, Object, Object>) function;
+        return (key, oldValue) -> oldValue == null ? null : remap.apply(key, oldValue);
+      }
+      case TYPE_MERGE: {
+        BiFunction<Object, Object, Object> merging = (BiFunction<Object, Object, Object>) function;
+        Object value = remapping.getValue();
+        return (key, oldValue) -> oldValue == null ? value : merging.apply(oldValue, value);
+      }
+      default:
+        throw new IllegalArgumentException("Unknown remapping type: " + type);
+    }
+  }
+
+
+  private Object remapLocal(String type, Remapping remapping) {
+    Object key = remapping.getKey();
+    Object function = remapping.getFunction();
+
+    switch (type) {
+      case TYPE_COMPUTE:
+        return delegate.compute(key, (BiFunction<Object, Object, Object>) function);
+      case TYPE_COMPUTE_IF_ABSENT:
+        return delegate.computeIfAbsent(key, (Function<Object, Object>) function);
+      case TYPE_COMPUTE_IF_PRESENT:
+        return delegate.computeIfPresent(key, (BiFunction<Object, Object, Object>) function);
+      case TYPE_MERGE:
+        return delegate.merge(key, remapping.getValue(), (BiFunction<Object, Object, Object>) function);
+      default:
+        throw new IllegalArgumentException("Unknown remapping type: " + type);
+    }
+  }
+
+  /**
+   * Send a message whose response carries a single object payload and has the same type as the request.
+   */
+  private Object call(Node target, Message message) {
+    Message response = send(target, message);
+
+    if (!message.getType().equals(response.getType())) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+    }
+
+    return response.getPayload(Object.class);
+  }
+
+  /**
+   * Ask the target for something it may turn down. A target that cannot be reached, because it left meanwhile, is
+   * taken to have said no.
+   */
+  private boolean agrees(Node target, Message message) {
+    Message response;
+
+    try {
+      response = send(target, message);
+    }
+    catch (MeshMapRuntimeException e) {
+      return false;
+    }
+
+    if (!Message.ACK.equals(response) && !Message.NO.equals(response)) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+    }
+
+    return Message.ACK.equals(response);
+  }
+
+  /**
+   * Send a message about a single key. If the node no longer owns the key, the view of the cluster is refreshed and
+   * a KeyMovedException names the node that does.
+   */
+  private Message send(Node target, Message message) {
+    long epoch = cluster.getEpoch();
+    Message response = request(target, message);
+
+    if (TYPE_REDIRECT.equals(response.getType())) {
+      Node owner = redirected(response, epoch)[0];
+      throw new KeyMovedException(message.getPayload(Object.class), owner);
+    }
+
+    return response;
+  }
+
+  private Message request(Node target, Message message) {
+    try {
+      if (isRead(message)) {
+        return server.hedge(target, message.withMap(name));
+      }
+
+      Message response = server.message(target, message.withMap(name));
+
+      // Reads that start from now on see this write, so they must not share a request that may have been sent before.
+      if (reads != null) {
+        reads.fence();
+      }
+
+      return response;
+    }
+    catch(IOException e) {
+      throw new MeshMapRuntimeException(e);
+    }
+  }
+
+  /**
+   * Share the read with any identical read already on its way to the owner.
+   */
+  private <T> T coalesce(Read read, Supplier<T> call) {
+    return reads == null ? call.get() : reads.call(read, call);
+  }
+
+  /**
+   * Reads have no side effects, so a slow one can be sent twice.
+   */
+  private static boolean isRead(Message message) {
+    String type = message.getType();
+    return TYPE_GET.equals(type) || TYPE_GET_ALL.equals(type) || TYPE_CONTAINS_KEY.equals(type);
+  }
+
+  private Node[] redirected(Message response, long epoch) {
+    if (!TYPE_REDIRECT.equals(response.getType())) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+    }
+
+    // The sender's view is stale, so reload it unless another redirected request already did.
+    cluster.refresh(epoch);
+    return response.getPayload(Node[].class);
+  }
+
+  /**
+   * Run an operation on the node that owns a key, following the key when it turns out to have moved.
+   */
+  private <T> T routed(Node target, Function<Node, T> operation) {
+    for (int redirects = 0; ; redirects++) {
+      try {
+        return operation.apply(target);
+      }
+      catch (KeyMovedException e) {
+        if (redirects == MAX_REDIRECTS) {
+          throw new MeshMapRuntimeException("Key kept moving between nodes", e);
+        }
+
+        target = e.getOwner();
+      }
+    }
+  }
+
+  /**
+   * Group redirected keys by their new owners. A node that turned a batch away halfway names a single owner, so the
+   * keys are then routed with the refreshed view instead.
+   */
+  private Map<Node, List<Object>> regroup(List<Object> keys, Node[] owners, int redirects) {
+    if (redirects == MAX_REDIRECTS) {
+      throw new MeshMapRuntimeException("Keys kept moving between nodes");
+    }
+
+    Map<Node, List<Object>> groups = new HashMap<>();
+
+    for (int i = 0; i < keys.size(); i++) {
+      Node owner = owners.length == keys.size() ? owners[i] : getNodeForKey(keys.get(i));
+      groups.computeIfAbsent(owner, node -> new ArrayList<>()).add(keys.get(i));
+    }
+
+    return groups;
+  }
+
+  /**
+   * Return a value read from the local store, unless the key was handed over while it was read.
+   */
+  private <T> T checkOwned(Object key, T value) {
+    Node owner = getNodeForKey(key);
+
+    if (!owner.equals(self)) {
+      throw new KeyMovedException(key, owner);
+    }
+
+    return value;
+  }
+
+  private static Object checkSerializable(Object function) {
+    Objects.requireNonNull(function);
+
+    if (!(function instanceof Serializable)) {
+      throw new MeshMapMarshallException("Functions must be Serializable so that they can run on the owner node");
+    }
+
+    return function;
+  }
+
   @Value
   private static class Entry implements Serializable {
     Object key;
     Object value;
   }
 
+  @Value
+  private static class Replacement implements Serializable {
+    Object key;
+    Object oldValue;
+    Object newValue;
+  }
+
+  @Value
+  private static class Remapping implements Serializable {
+    Object key;
+    Object value;
+    Object function;
+  }
+
+  @Value
+  private static class Read {
+    Node target;
+    String type;
+    Object key;
+  }
+
+  @Value
+  private static class CachedValue {
+    Object value;
+    long expiresAt;
+  }
+
   @Value
   private static class TypedEntry<K, V> implements Map.Entry<K, V> {
     K key;
@@ -399,4 +1652,23 @@ public class MeshMapImpl<K, V> implements MeshMap<K, V>, MessageHandler {
       throw new UnsupportedOperationException();
     }
   }
+
+  /**
+   * Asks for the digests or keys of a range. Holds group indexes for a DIGEST, where null asks for the digests of all
+   * groups, and bucket indexes for BUCKET_KEYS.
+   */
+  @Value
+  private static class Probe implements Serializable {
+    HashRange range;
+    int[] indexes;
+  }
+
+  @Value
+  private static class Transfer implements Serializable {
+    Node source;
+    HashRange range;
+    boolean clear;
+    boolean done;
+    Entry[] entries;
+  }
 }
@@ -3,27 +3,86 @@ package jamsesso.meshmap;
 import lombok.Value;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static java.lang.System.err;
 
-public class MeshMapServer implements Runnable, AutoCloseable {
+public class MeshMapServer implements AutoCloseable {
   private final MeshMapCluster cluster;
   private final Node self;
+  private final Transport transport;
+  private final Tracer tracer;
+  private final int retryAttempts;
+  private final Backoff retryBackoff;
+  private final double retryBudgetRatio;
+  private final int retryBudgetMinPerSecond;
+
+  // Each node has a budget of its own, so retries to a node that is struggling cannot use up the retries of the rest.
+  private final Map<Node, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+  private final boolean hedgeReads;
+  private final double hedgePercentile;
+  private final Map<Node, LatencyEstimate> latencies = new ConcurrentHashMap<>();
+  private final AtomicLong hedgeCount = new AtomicLong();
+  private final ExecutorService hedges;
+  private final AdmissionControl admissionControl;
   private MessageHandler messageHandler;
-  private volatile boolean started = false;
-  private volatile IOException failure = null;
-  private ServerSocket serverSocket;
 
   public MeshMapServer(MeshMapCluster cluster, Node self) {
+    this(cluster, self, new SocketTransport());
+  }
+
+  public MeshMapServer(MeshMapCluster cluster, Node self, Transport transport) {
+    this(cluster, self, transport, new Tracer(MeshMapConfig.DEFAULT));
+  }
+
+  public MeshMapServer(MeshMapCluster cluster, Node self, Transport transport, Tracer tracer) {
+    this(cluster, self, transport, tracer, MeshMapConfig.DEFAULT);
+  }
+
+  public MeshMapServer(MeshMapCluster cluster, Node self, Transport transport, Tracer tracer, MeshMapConfig config) {
     this.cluster = cluster;
     this.self = self;
+    this.transport = transport;
+    this.tracer = tracer;
+    this.retryAttempts = config.getRetryAttempts();
+    this.retryBackoff = config.getRetryBackoff();
+    this.retryBudgetRatio = config.getRetryBudgetRatio();
+    this.retryBudgetMinPerSecond = config.getRetryBudgetMinPerSecond();
+    this.hedgeReads = config.isHedgeReads();
+    this.hedgePercentile = config.getHedgePercentile();
+    this.admissionControl = new AdmissionControl(config);
+    this.hedges = hedgeReads ? Threads.perTask("meshmap-hedge") : null;
+  }
+
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * How many reads were sent a second time because the first copy was slow.
+   */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /**
+   * How many requests from other nodes were answered BUSY because this node already had enough work.
+   */
+  public long getRejectedCount() {
+    return admissionControl.getRejectedCount();
   }
 
   public void start(MessageHandler messageHandler) throws IOException {
@@ -32,94 +91,195 @@ public class MeshMapServer implements Runnable, AutoCloseable {
     }
 
     this.messageHandler = messageHandler;
-    new Thread(this).start();
-
-    // Wait for the server to start.
-    while (!started);
+    transport.bind(self, admissionControl.admit(messageHandler), admissionControl.getConnectionLimit(),
+      admissionControl::reject);
+    tracer.register(self);
+  }
 
-    if (failure != null) {
-      throw failure;
+  /**
+   * Whether the node predates version negotiation, and so only understands the messages of the original protocol.
+   * A node that cannot be reached is assumed to be current, and the message sent to it next reports the failure.
+   */
+  public boolean isLegacy(Node node) {
+    try {
+      return transport.getVersion(node) == Message.VERSION_1;
+    }
+    catch (IOException e) {
+      return false;
     }
   }
 
   public Message message(Node node, Message message) throws IOException {
+    TraceSpan span = tracer.sample();
+
+    if (span == null) {
+      try {
+        return retry(node, () -> send(node, message, null), null);
+      }
+      catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+
     try {
-      return Retryable.retry(() -> {
-        try (Socket socket = new Socket()) {
-          socket.connect(node.getAddress());
-
-          try (OutputStream outputStream = socket.getOutputStream();
-               InputStream inputStream = socket.getInputStream()) {
-            message.write(outputStream);
-            outputStream.flush();
-            return Message.read(inputStream);
-          }
+      return retry(node, () -> {
+        span.attempt();
+
+        try {
+          return send(node, message, span);
         }
-      }).on(IOException.class).times(3);
+        catch (IOException e) {
+          span.stage("failed");
+          throw e;
+        }
+      }, span);
     }
     catch (Exception e) {
       throw new IOException(e);
     }
+    finally {
+      tracer.record(span.finish(node, message));
+    }
+  }
+
+  /**
+   * Send a read that is safe to send twice. If hedging is enabled and the node has not answered within its usual
+   * response time (the configured percentile of its recent responses), a second copy is sent over a new connection
+   * and whichever response arrives first is used. Second copies count against the retry budget.
+   */
+  public Message hedge(Node node, Message message) throws IOException {
+    long delay = hedgeReads ? latency(node).percentile(hedgePercentile) : -1;
+
+    if (delay < 0) {
+      return message(node, message);
+    }
+
+    CompletableFuture<Message> first = sendAsync(node, message);
+
+    try {
+      return first.get(delay, TimeUnit.NANOSECONDS);
+    }
+    catch (TimeoutException e) {
+      // Slower than usual, so hedge below.
+    }
+    catch (InterruptedException | ExecutionException e) {
+      return await(first);
+    }
+
+    if (!retryBudget(node).tryRetry()) {
+      return await(first);
+    }
+
+    hedgeCount.incrementAndGet();
+    return await(firstSuccess(first, sendAsync(node, message)));
   }
 
   public Map<Node, Message> broadcast(Message message) {
-    return cluster.getAllNodes().parallelStream()
+    List<Node> others = cluster.getAllNodes().stream()
       .filter(node -> !node.equals(self))
-      .map(node -> {
-        try {
-          return new BroadcastResponse(node, message(node, message));
-        }
-        catch(IOException e) {
-          // TODO Better error handling strategy needed.
-          err.println("Unable to broadcast message to node: " + node);
-          e.printStackTrace();
+      .collect(Collectors.toList());
 
-          return new BroadcastResponse(node, Message.ERR);
-        }
-      })
+    return Threads.fanOut(others, node -> {
+      try {
+        return new BroadcastResponse(node, message(node, message));
+      }
+      catch(IOException e) {
+        // TODO Better error handling strategy needed.
+        err.println("Unable to broadcast message to node: " + node);
+        e.printStackTrace();
+
+        return new BroadcastResponse(node, Message.ERR);
+      }
+    }).stream()
       .collect(Collectors.toMap(BroadcastResponse::getNode, BroadcastResponse::getResponse));
   }
 
   @Override
-  public void run() {
-    try {
-      serverSocket = new ServerSocket(self.getAddress().getPort());
-    }
-    catch (IOException e) {
-      failure = e;
+  public void close() throws Exception {
+    tracer.unregister();
+    transport.close();
+
+    if (hedges != null) {
+      hedges.shutdown();
     }
-    finally {
-      started = true;
+  }
+
+  private <T> T retry(Node node, Retryable.Task<T> task, TraceSpan span) throws Exception {
+    // A request that timed out may still be applied by the other node, so only requests that failed outright are
+    // retried.
+    return Retryable.retry(task)
+      .on(IOException.class)
+      .except(SocketTimeoutException.class)
+      .backoff(retryBackoff)
+      .budget(retryBudget(node))
+      .traced(span)
+      .times(retryAttempts);
+  }
+
+  private Message send(Node node, Message message, TraceSpan span) throws IOException {
+    long start = System.nanoTime();
+    Message response = span == null ? transport.send(node, message) : transport.send(node, message, span);
+
+    if (Message.TYPE_BUSY.equals(response.getType())) {
+      throw new ServerBusyException(node, response.getPayloadAsInt());
     }
 
-    while (!serverSocket.isClosed()) {
-      try (Socket socket = serverSocket.accept();
-           InputStream inputStream = socket.getInputStream();
-           OutputStream outputStream = socket.getOutputStream()) {
-        Message message = Message.read(inputStream);
-        Message response = messageHandler.handle(message);
+    latency(node).record(System.nanoTime() - start);
+    return response;
+  }
 
-        if(response == null) {
-          response = Message.ACK;
-        }
+  private RetryBudget retryBudget(Node node) {
+    return retryBudgets.computeIfAbsent(node, n -> new RetryBudget(retryBudgetRatio, retryBudgetMinPerSecond));
+  }
 
-        response.write(outputStream);
-        outputStream.flush();
-      }
-      catch (SocketException e) {
-        // Socket was closed. Nothing to do here. Node is going down.
+  private LatencyEstimate latency(Node node) {
+    return latencies.computeIfAbsent(node, n -> new LatencyEstimate());
+  }
+
+  private CompletableFuture<Message> sendAsync(Node node, Message message) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return message(node, message);
       }
       catch (IOException e) {
-        // TODO Better error handling strategy is needed.
-        err.println("Unable to accept connection");
-        e.printStackTrace();
+        throw new CompletionException(e);
       }
+    }, hedges);
+  }
+
+  /**
+   * The response of whichever call succeeds first, or the failure of the last one if neither does.
+   */
+  private static CompletableFuture<Message> firstSuccess(CompletableFuture<Message> a, CompletableFuture<Message> b) {
+    CompletableFuture<Message> result = new CompletableFuture<>();
+    AtomicInteger failures = new AtomicInteger();
+
+    for (CompletableFuture<Message> call : new CompletableFuture[] {a, b}) {
+      call.whenComplete((response, failure) -> {
+        if (failure == null) {
+          result.complete(response);
+        }
+        else if (failures.incrementAndGet() == 2) {
+          result.completeExceptionally(failure);
+        }
+      });
     }
+
+    return result;
   }
 
-  @Override
-  public void close() throws Exception {
-    serverSocket.close();
+  private static Message await(CompletableFuture<Message> call) throws IOException {
+    try {
+      return call.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a response");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
   }
 
   @Value
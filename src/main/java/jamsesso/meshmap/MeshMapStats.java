@@ -0,0 +1,37 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * A point-in-time view of the statistics collected by the local node.
+ */
+@Value
+public class MeshMapStats {
+  int localSize;
+  long evictionCount;
+
+  // Entries counted in localSize that are spilled to disk rather than held in memory.
+  int spilledSize;
+
+  // Spill segments that could not be compacted, and keep their dead records on disk until the node leaves.
+  long failedCompactions;
+
+  // Keys owned by this node that are currently hot, with their estimated reads per window.
+  Map<Object, Long> hotKeys;
+  long nearCacheHits;
+
+  // Remote reads answered by another caller's request for the same key instead of a request of their own.
+  long coalescedReads;
+
+  // Events for keys owned by this node that were not published because a listener's filter threw.
+  long eventFilterFailures;
+
+  // Events for keys owned by this node that could not be delivered to a subscriber, even after a retry, or that were
+  // dropped because the subscriber fell too far behind.
+  long droppedEvents;
+
+  // Handoffs of a range to a joining node that failed, after which this node kept serving the range.
+  long failedHandoffs;
+}
@@ -6,17 +6,30 @@ import lombok.ToString;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Messages have the following byte format.
+ * Messages have two byte formats. Version 1 is the original format, spoken by nodes that predate version negotiation.
+ * It has no room for a map name, so it can only address the default map.
  *
  * +-----------------+------------------+----------------+
  * | 32 byte type ID | 4 byte size (=X) | X byte payload |
  * +-----------------+------------------+----------------+
+ *
+ * Version 2 frames start with a marker byte that cannot begin an ASCII type ID, so both versions can be read from the
+ * same socket. Sizes are unsigned varints. The type name is only present when the opcode is 0, the map name is only
+ * present when the map flag is set, and the trace is only present when the trace flag is set.
+ *
+ * +--------+--------+-------+-----------------+----------------+---------+------------------+----------------+
+ * | 0xB2   | opcode | flags | [varint + type] | [varint + map] | [trace] | varint size (=X) | X byte payload |
+ * +--------+--------+-------+-----------------+----------------+---------+------------------+----------------+
+ *
+ * A trace is an 8 byte trace ID followed by a varint count and that many varint stage timings. Version 1 frames
+ * carry no trace.
  */
 @Data
-@EqualsAndHashCode
-@ToString(exclude = "payload")
+@EqualsAndHashCode(exclude = {"traceId", "timings", "version"})
+@ToString(exclude = {"payload", "timings", "version"})
 public class Message {
   public static final String TYPE_HI = "HI";
   public static final String TYPE_BYE = "BYE";
@@ -24,6 +37,16 @@ public class Message {
   public static final String TYPE_ERR = "ERR";
   public static final String TYPE_YES = "YES";
   public static final String TYPE_NO = "NO";
+  public static final String TYPE_VERSION = "VERSION";
+  public static final String TYPE_BUSY = "BUSY";
+
+  public static final int VERSION_1 = 1;
+  public static final int VERSION_2 = 2;
+  public static final int CURRENT_VERSION = VERSION_2;
+
+  public static final String DEFAULT_MAP = "";
+
+  private static final byte[] EMPTY = new byte[0];
 
   public static final Message HI = new Message(TYPE_HI);
   public static final Message BYE = new Message(TYPE_BYE);
@@ -33,14 +56,29 @@ public class Message {
   public static final Message NO = new Message(TYPE_NO);
 
   private static final int MESSAGE_TYPE = 32;
+  private static final int MESSAGE_MAP = 32;  // Longest map name, only carried by version 2 frames.
   private static final int MESSAGE_SIZE = 4;
 
+  private static final int V2_MARKER = 0xB2;
+  private static final int FLAG_MAP = 0x01;
+  private static final int FLAG_TRACE = 0x02;
+  private static final long[] NO_TIMINGS = new long[0];
+
   private final String type;
+  private final String map;
   private final int length;
   private final byte[] payload;
 
+  // Set on sampled requests, and on their responses together with the time the responder spent in each stage.
+  private final long traceId;
+  private final long[] timings;
+
+  // The version of the frame a received message arrived in. Nodes that negotiate a version only send the VERSION
+  // request in version 1, so any other version 1 request comes from a node that predates negotiation.
+  private final int version;
+
   public Message(String type) {
-    this(type, new byte[0]);
+    this(type, EMPTY);
   }
 
   public Message(String type, Object payload) {
@@ -48,10 +86,42 @@ public class Message {
   }
 
   public Message(String type, byte[] payload) {
+    this(DEFAULT_MAP, type, payload);
+  }
+
+  public Message(String map, String type, byte[] payload) {
+    this(map, type, payload, 0, NO_TIMINGS, CURRENT_VERSION);
     checkType(type);
+    checkMap(map);
+  }
+
+  private Message(String map, String type, byte[] payload, long traceId, long[] timings, int version) {
     this.type = type;
+    this.map = map;
     this.length = payload.length;
     this.payload = payload;
+    this.traceId = traceId;
+    this.timings = timings;
+    this.version = version;
+  }
+
+  /**
+   * Address a copy of this message to the named map.
+   */
+  public Message withMap(String map) {
+    checkMap(map);
+    return new Message(map, type, payload, traceId, timings, version);
+  }
+
+  /**
+   * Tag a copy of this message with a trace ID and, for responses, the nanoseconds spent in each stage.
+   */
+  public Message withTrace(long traceId, long... timings) {
+    return new Message(map, type, payload, traceId, timings, version);
+  }
+
+  public boolean isTraced() {
+    return traceId != 0;
   }
 
   public <T> T getPayload(Class<T> clazz) {
@@ -63,35 +133,244 @@ public class Message {
   }
 
   public void write(OutputStream outputStream) throws IOException {
+    write(outputStream, VERSION_1);
+  }
+
+  public void write(OutputStream outputStream, int version) throws IOException {
+    if (version >= VERSION_2) {
+      writeV2(outputStream);
+    }
+    else {
+      writeV1(outputStream);
+    }
+  }
+
+  /**
+   * Read a message of either version.
+   */
+  public static Message read(InputStream inputStream) throws IOException {
+    int first = readByte(inputStream);
+    return first == V2_MARKER ? readV2(inputStream) : readV1(first, inputStream);
+  }
+
+  /**
+   * Tell which version the next message on the stream uses without consuming it.
+   */
+  static int peekVersion(InputStream inputStream) throws IOException {
+    inputStream.mark(1);
+    int first = readByte(inputStream);
+    inputStream.reset();
+    return first == V2_MARKER ? VERSION_2 : VERSION_1;
+  }
+
+  private void writeV1(OutputStream outputStream) throws IOException {
+    if (!map.isEmpty()) {
+      throw new MeshMapRuntimeException("Only the default map can be reached with protocol version 1, not: " + map);
+    }
+
     ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_TYPE + MESSAGE_SIZE + length);
     byte[] typeBytes = type.getBytes();
-    byte[] remainingBytes = new byte[MESSAGE_TYPE - typeBytes.length];
 
     buffer.put(typeBytes);
-    buffer.put(remainingBytes);
+    buffer.put(new byte[MESSAGE_TYPE - typeBytes.length]);
     buffer.putInt(length);
     buffer.put(payload);
 
     outputStream.write(buffer.array());
   }
 
-  public static Message read(InputStream inputStream) throws IOException {
+  private void writeV2(OutputStream outputStream) throws IOException {
+    int opcode = Opcodes.of(type);
+    byte[] typeBytes = opcode == Opcodes.NAMED ? type.getBytes(StandardCharsets.UTF_8) : EMPTY;
+    byte[] mapBytes = map.isEmpty() ? EMPTY : map.getBytes(StandardCharsets.UTF_8);
+    int size = 3 + varintSize(length) + length;
+    int flags = (mapBytes.length > 0 ? FLAG_MAP : 0) | (isTraced() ? FLAG_TRACE : 0);
+
+    if (opcode == Opcodes.NAMED) {
+      size += varintSize(typeBytes.length) + typeBytes.length;
+    }
+
+    if (mapBytes.length > 0) {
+      size += varintSize(mapBytes.length) + mapBytes.length;
+    }
+
+    if (isTraced()) {
+      size += 8 + varintSize(timings.length);
+
+      for (long timing : timings) {
+        size += varintSize(timing);
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.put((byte) V2_MARKER);
+    buffer.put((byte) opcode);
+    buffer.put((byte) flags);
+
+    if (opcode == Opcodes.NAMED) {
+      putVarint(buffer, typeBytes.length);
+      buffer.put(typeBytes);
+    }
+
+    if (mapBytes.length > 0) {
+      putVarint(buffer, mapBytes.length);
+      buffer.put(mapBytes);
+    }
+
+    if (isTraced()) {
+      buffer.putLong(traceId);
+      putVarint(buffer, timings.length);
+
+      for (long timing : timings) {
+        putVarint(buffer, timing);
+      }
+    }
+
+    putVarint(buffer, length);
+    buffer.put(payload);
+
+    outputStream.write(buffer.array());
+  }
+
+  private static Message readV1(int first, InputStream inputStream) throws IOException {
     byte[] msgType = new byte[MESSAGE_TYPE];
     byte[] msgSize = new byte[MESSAGE_SIZE];
 
-    inputStream.read(msgType);
-    inputStream.read(msgSize);
+    msgType[0] = (byte) first;
+    readFully(inputStream, msgType, 1, MESSAGE_TYPE - 1);
+    readFully(inputStream, msgSize, 0, MESSAGE_SIZE);
 
     // Create a buffer for the payload
     int size = ByteBuffer.wrap(msgSize).getInt();
     byte[] msgPayload = new byte[size];
 
-    inputStream.read(msgPayload);
+    readFully(inputStream, msgPayload, 0, size);
 
-    return new Message(new String(msgType).trim(), msgPayload);
+    return new Message(DEFAULT_MAP, new String(msgType).trim(), msgPayload, 0, NO_TIMINGS, VERSION_1);
   }
 
-  private static byte[] toBytes(Object object) {
+  /**
+   * Known types and the default map resolve to shared strings, so decoding a v2 frame for the default map only
+   * allocates the message and its payload.
+   */
+  private static Message readV2(InputStream inputStream) throws IOException {
+    int opcode = readByte(inputStream);
+    int flags = readByte(inputStream);
+
+    if ((flags & ~(FLAG_MAP | FLAG_TRACE)) != 0) {
+      throw new IOException("Unsupported message flags: " + flags);
+    }
+
+    String type = opcode == Opcodes.NAMED ? readString(inputStream) : Opcodes.type(opcode);
+
+    if (type == null) {
+      throw new IOException("Unknown message opcode: " + opcode);
+    }
+
+    String map = (flags & FLAG_MAP) != 0 ? readString(inputStream) : DEFAULT_MAP;
+    long traceId = 0;
+    long[] timings = NO_TIMINGS;
+
+    if ((flags & FLAG_TRACE) != 0) {
+      byte[] id = new byte[8];
+      readFully(inputStream, id, 0, 8);
+      traceId = ByteBuffer.wrap(id).getLong();
+      timings = new long[readVarint(inputStream)];
+
+      for (int i = 0; i < timings.length; i++) {
+        timings[i] = readVarlong(inputStream);
+      }
+    }
+
+    int size = readVarint(inputStream);
+    byte[] msgPayload = size == 0 ? EMPTY : new byte[size];
+
+    readFully(inputStream, msgPayload, 0, size);
+
+    return new Message(map, type, msgPayload, traceId, timings, VERSION_2);
+  }
+
+  private static String readString(InputStream inputStream) throws IOException {
+    int size = readVarint(inputStream);
+
+    if (size > MESSAGE_TYPE) {
+      throw new IOException("Name cannot exceed 32 bytes");
+    }
+
+    byte[] bytes = new byte[size];
+    readFully(inputStream, bytes, 0, size);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int readByte(InputStream inputStream) throws IOException {
+    int b = inputStream.read();
+
+    if (b < 0) {
+      throw new EOFException("Connection closed before the message was complete");
+    }
+
+    return b;
+  }
+
+  private static void readFully(InputStream inputStream, byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      int read = inputStream.read(bytes, offset, length);
+
+      if (read < 0) {
+        throw new EOFException("Connection closed before the message was complete");
+      }
+
+      offset += read;
+      length -= read;
+    }
+  }
+
+  private static int readVarint(InputStream inputStream) throws IOException {
+    long value = readVarlong(inputStream);
+
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Size out of range: " + value);
+    }
+
+    return (int) value;
+  }
+
+  private static long readVarlong(InputStream inputStream) throws IOException {
+    long value = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(inputStream);
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Malformed varint");
+  }
+
+  private static void putVarint(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    buffer.put((byte) value);
+  }
+
+  private static int varintSize(long value) {
+    int size = 1;
+
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+
+    return size;
+  }
+
+  static byte[] toBytes(Object object) {
     try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
          ObjectOutput out = new ObjectOutputStream(bos)) {
       out.writeObject(object);
@@ -102,7 +381,7 @@ public class Message {
     }
   }
 
-  private static Object fromBytes(byte[] bytes) {
+  static Object fromBytes(byte[] bytes) {
     try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
          ObjectInput in = new ObjectInputStream(bis)) {
       return in.readObject();
@@ -121,4 +400,14 @@ public class Message {
       throw new IllegalArgumentException("Type cannot exceed 32 bytes");
     }
   }
+
+  private static void checkMap(String map) {
+    if (map == null) {
+      throw new IllegalArgumentException("Map name cannot be null");
+    }
+
+    if (map.getBytes().length > MESSAGE_MAP) {
+      throw new IllegalArgumentException("Map name cannot exceed 32 bytes");
+    }
+  }
 }
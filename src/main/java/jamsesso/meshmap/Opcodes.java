@@ -0,0 +1,117 @@
+package jamsesso.meshmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static jamsesso.meshmap.AdmissionControl.Kind.CONTROL;
+import static jamsesso.meshmap.AdmissionControl.Kind.POINT;
+import static jamsesso.meshmap.AdmissionControl.Kind.SCAN;
+
+/**
+ * The one byte codes that stand in for message types in v2 frames. Codes are part of the wire format: never renumber
+ * or reuse one, only append. Types without a code are sent by name.
+ *
+ * Every type is defined together with the kind of work it is, which decides how AdmissionControl admits it, so that a
+ * new type cannot be added without choosing one.
+ */
+final class Opcodes {
+  static final int NAMED = 0;
+
+  private static final String[] TYPES = new String[256];
+  private static final Map<String, Integer> CODES = new HashMap<>();
+  private static final Map<String, AdmissionControl.Kind> KINDS = new HashMap<>();
+
+  static {
+    // Membership and generic responses.
+    define(1, Message.TYPE_HI, CONTROL);
+    define(2, Message.TYPE_BYE, CONTROL);
+    define(3, Message.TYPE_ACK, CONTROL);
+    define(4, Message.TYPE_ERR, CONTROL);
+    define(5, Message.TYPE_YES, CONTROL);
+    define(6, Message.TYPE_NO, CONTROL);
+    define(7, Message.TYPE_VERSION, CONTROL);
+    define(8, "MAPS", CONTROL);
+    define(9, Message.TYPE_BUSY, CONTROL);
+
+    // MeshMapImpl.
+    define(16, "PUT", POINT);
+    define(17, "GET", POINT);
+    define(18, "REMOVE", POINT);
+    define(19, "CLEAR", SCAN);
+    define(20, "KEY_SET", SCAN);
+    define(21, "SIZE", POINT);
+    define(22, "CONTAINS_KEY", POINT);
+    define(23, "CONTAINS_VALUE", SCAN);
+    define(24, "DUMP_ENTRIES", SCAN);
+    define(25, "PUT_IF_ABSENT", POINT);
+    define(26, "REPLACE", POINT);
+    define(27, "REPLACE_IF", POINT);
+    define(28, "REMOVE_IF", POINT);
+    define(29, "COMPUTE", POINT);
+    define(30, "COMPUTE_IF_ABSENT", POINT);
+    define(31, "COMPUTE_IF_PRESENT", POINT);
+    define(32, "MERGE", POINT);
+    define(33, "PUT_ALL", SCAN);
+    define(34, "GET_ALL", SCAN);
+    define(35, "SUBSCRIBE", CONTROL);
+    define(36, "UNSUBSCRIBE", CONTROL);
+    define(37, "SUBSCRIPTIONS", CONTROL);
+    define(38, "EVENTS", CONTROL);
+    define(39, "GET_HOT", POINT);
+    define(40, "INVALIDATE", CONTROL);
+    define(41, "MIGRATE", CONTROL);
+    define(42, "MIGRATE_DATA", CONTROL);
+    define(43, "REDIRECT", CONTROL);
+    define(44, "SNAPSHOT", SCAN);
+    define(45, "RESTORE", SCAN);
+    define(46, "JOB", CONTROL);
+    define(47, "DIGEST", CONTROL);
+    define(48, "BUCKET_KEYS", CONTROL);
+    define(49, "LEAVE", CONTROL);
+
+    // LongMeshMapImpl.
+    define(64, "LONG_GET", POINT);
+    define(65, "LONG_PUT", POINT);
+    define(66, "LONG_REMOVE", POINT);
+    define(67, "LONG_VALUE", POINT);
+    define(68, "LONG_CLEAR", SCAN);
+    define(69, "LONG_KEY_SET", SCAN);
+    define(70, "LONG_SIZE", POINT);
+    define(71, "LONG_CONTAINS_KEY", POINT);
+  }
+
+  private Opcodes() {
+  }
+
+  /**
+   * The code for a message type, or NAMED if the type has none.
+   */
+  static int of(String type) {
+    Integer code = CODES.get(type);
+    return code == null ? NAMED : code;
+  }
+
+  /**
+   * The message type for a code, or null if the code is unknown.
+   */
+  static String type(int code) {
+    return TYPES[code];
+  }
+
+  /**
+   * The kind of work a message type is. Types without a code are point operations.
+   */
+  static AdmissionControl.Kind kind(String type) {
+    return KINDS.getOrDefault(type, POINT);
+  }
+
+  private static void define(int code, String type, AdmissionControl.Kind kind) {
+    if (TYPES[code] != null || CODES.containsKey(type)) {
+      throw new IllegalStateException("Duplicate opcode: " + code + " " + type);
+    }
+
+    TYPES[code] = type;
+    CODES.put(type, code);
+    KINDS.put(type, kind);
+  }
+}
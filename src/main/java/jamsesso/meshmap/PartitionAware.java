@@ -0,0 +1,9 @@
+package jamsesso.meshmap;
+
+/**
+ * Keys implementing this interface are routed by their partition key instead of by themselves. All keys that share a
+ * partition key live on the same node, so batch operations over related keys only ever touch one node.
+ */
+public interface PartitionAware {
+  Object getPartitionKey();
+}
@@ -0,0 +1,64 @@
+package jamsesso.meshmap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lossy ring of recently read keys. Reads of a bounded store note their key here without taking the store
+ * lock, and whoever holds the lock next replays the notes into the eviction policy. When the ring is full a read is
+ * simply not recorded: eviction only needs an approximate picture of popularity, and dropping a sample is much cheaper
+ * than making every reader wait for the lock.
+ *
+ * Any number of threads may add keys. Only one thread at a time may drain, which the store lock guarantees.
+ */
+class ReadBuffer {
+  static final int SIZE = 128;
+  private static final int MASK = SIZE - 1;
+
+  private final AtomicReferenceArray<Object> keys = new AtomicReferenceArray<>(SIZE);
+  private final AtomicLong writeCounter = new AtomicLong();
+  private final AtomicLong readCounter = new AtomicLong();
+
+  /**
+   * Note a read of the key. Returns false if the ring was full or another reader got in the way, and the read was
+   * dropped.
+   */
+  boolean offer(Object key) {
+    long tail = writeCounter.get();
+
+    if (tail - readCounter.get() >= SIZE || !writeCounter.compareAndSet(tail, tail + 1)) {
+      return false;
+    }
+
+    keys.lazySet((int) (tail & MASK), key);
+    return true;
+  }
+
+  /**
+   * How many reads are waiting to be drained.
+   */
+  int size() {
+    return (int) (writeCounter.get() - readCounter.get());
+  }
+
+  void drain(Consumer<Object> consumer) {
+    long head = readCounter.get();
+    long tail = writeCounter.get();
+
+    for (; head < tail; head++) {
+      int index = (int) (head & MASK);
+      Object key = keys.get(index);
+
+      // Claimed but not written yet. Leave it, and everything after it, for the next drain.
+      if (key == null) {
+        break;
+      }
+
+      keys.lazySet(index, null);
+      consumer.accept(key);
+    }
+
+    readCounter.lazySet(head);
+  }
+}
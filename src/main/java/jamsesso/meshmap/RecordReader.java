@@ -0,0 +1,102 @@
+package jamsesso.meshmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A stream of key/value records for a BulkLoader. Records are read one at a time, so inputs of any size can be loaded.
+ */
+public interface RecordReader<K, V> extends AutoCloseable {
+  /**
+   * The next record, or null at the end of the input.
+   */
+  Map.Entry<K, V> next() throws IOException;
+
+  @Override
+  void close() throws IOException;
+
+  /**
+   * Read one record per line of UTF-8 text. Blank lines are skipped.
+   */
+  static <K, V> RecordReader<K, V> lines(InputStream in, Function<String, Map.Entry<K, V>> parser) {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+    return new RecordReader<K, V>() {
+      @Override
+      public Map.Entry<K, V> next() throws IOException {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          if (!line.trim().isEmpty()) {
+            return parser.apply(line);
+          }
+        }
+
+        return null;
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  /**
+   * Read lines of the form key,value. Either field may be quoted to hold commas, with "" standing for a quote inside a
+   * quoted field. Fields cannot span lines.
+   */
+  static <K, V> RecordReader<K, V> csv(InputStream in, Function<String, K> keyParser, Function<String, V> valueParser) {
+    return lines(in, line -> {
+      List<String> fields = Csv.split(line);
+
+      if (fields.size() != 2) {
+        throw new IllegalArgumentException("Expected a key and a value: " + line);
+      }
+
+      return new SimpleImmutableEntry<>(keyParser.apply(fields.get(0)), valueParser.apply(fields.get(1)));
+    });
+  }
+
+  /**
+   * Read records written by RecordWriter.binary: a 4 byte length and the serialized key, then a 4 byte length and the
+   * serialized value.
+   */
+  static <K, V> RecordReader<K, V> binary(InputStream in) {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+    return new RecordReader<K, V>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public Map.Entry<K, V> next() throws IOException {
+        int keyLength;
+
+        try {
+          keyLength = data.readInt();
+        }
+        catch (EOFException e) {
+          return null;
+        }
+
+        byte[] key = new byte[keyLength];
+        data.readFully(key);
+        byte[] value = new byte[data.readInt()];
+        data.readFully(value);
+        return new SimpleImmutableEntry<>((K) Message.fromBytes(key), (V) Message.fromBytes(value));
+      }
+
+      @Override
+      public void close() throws IOException {
+        data.close();
+      }
+    };
+  }
+}
@@ -0,0 +1,37 @@
+package jamsesso.meshmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes key/value records in the binary format read by RecordReader.binary.
+ */
+public interface RecordWriter<K, V> extends AutoCloseable {
+  void write(K key, V value) throws IOException;
+
+  @Override
+  void close() throws IOException;
+
+  static <K, V> RecordWriter<K, V> binary(OutputStream out) {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+
+    return new RecordWriter<K, V>() {
+      @Override
+      public void write(K key, V value) throws IOException {
+        byte[] keyBytes = Message.toBytes(key);
+        byte[] valueBytes = Message.toBytes(value);
+        data.writeInt(keyBytes.length);
+        data.write(keyBytes);
+        data.writeInt(valueBytes.length);
+        data.write(valueBytes);
+      }
+
+      @Override
+      public void close() throws IOException {
+        data.close();
+      }
+    };
+  }
+}
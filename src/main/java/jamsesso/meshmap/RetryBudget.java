@@ -0,0 +1,58 @@
+package jamsesso.meshmap;
+
+/**
+ * Caps retries to a share of all calls, so that clients cannot bury a struggling node under retries on top of its
+ * regular load. Over the last one to two seconds, retries may add up to ratio times the number of calls, plus a
+ * minimum per second so that a client making few calls can still retry.
+ */
+public class RetryBudget {
+  private static final long WINDOW = 1_000_000_000L;
+
+  private final double ratio;
+  private final int minPerSecond;
+  private long windowStart = System.nanoTime();
+  private long calls = 0;
+  private long retries = 0;
+  private long previousCalls = 0;
+  private long previousRetries = 0;
+
+  public RetryBudget(double ratio, int minPerSecond) {
+    this.ratio = ratio;
+    this.minPerSecond = minPerSecond;
+  }
+
+  public synchronized void recordCall() {
+    roll();
+    calls++;
+  }
+
+  /**
+   * Spend one retry from the budget. Returns false if the budget is used up.
+   */
+  public synchronized boolean tryRetry() {
+    roll();
+    long allowed = minPerSecond + (long) (ratio * (calls + previousCalls));
+
+    if (retries + previousRetries >= allowed) {
+      return false;
+    }
+
+    retries++;
+    return true;
+  }
+
+  private void roll() {
+    long elapsed = System.nanoTime() - windowStart;
+
+    if (elapsed < WINDOW) {
+      return;
+    }
+
+    // Forget the previous window entirely if the current one ended a while ago.
+    previousCalls = elapsed < 2 * WINDOW ? calls : 0;
+    previousRetries = elapsed < 2 * WINDOW ? retries : 0;
+    calls = 0;
+    retries = 0;
+    windowStart += elapsed - elapsed % WINDOW;
+  }
+}
@@ -1,10 +1,15 @@
 package jamsesso.meshmap;
 
+import java.io.InterruptedIOException;
 import java.util.stream.Stream;
 
 public final class Retryable<T> {
   private final Task<T> task;
   private Class<? extends Exception>[] causes;
+  private Class<? extends Exception>[] exceptions;
+  private Backoff backoff = Backoff.NONE;
+  private RetryBudget budget;
+  private TraceSpan span;
 
   private Retryable(Task<T> task) {
     this.task = task;
@@ -20,18 +25,66 @@ public final class Retryable<T> {
     return this;
   }
 
+  /**
+   * Never retry these, even if they match one of the causes to retry on.
+   */
+  @SafeVarargs
+  public final Retryable<T> except(Class<? extends Exception>... exceptions) {
+    this.exceptions = exceptions;
+    return this;
+  }
+
+  public final Retryable<T> backoff(Backoff backoff) {
+    this.backoff = backoff;
+    return this;
+  }
+
+  /**
+   * Only retry while the budget allows it. Every call to times counts against the budget as one call.
+   */
+  public final Retryable<T> budget(RetryBudget budget) {
+    this.budget = budget;
+    return this;
+  }
+
+  /**
+   * Record the time spent waiting between attempts as the backoff stage of the span, if there is one.
+   */
+  public final Retryable<T> traced(TraceSpan span) {
+    this.span = span;
+    return this;
+  }
+
   public final T times(int times) throws Exception {
+    if (budget != null) {
+      budget.recordCall();
+    }
+
     // Performs the action times-1 times.
     for (int i = 1; i < times; i++) {
       try {
         return task.apply();
       }
       catch (Exception e) {
-        boolean shouldRetry = Stream.of(causes).anyMatch(cause -> cause.isInstance(e));
+        boolean shouldRetry = Stream.of(causes).anyMatch(cause -> cause.isInstance(e))
+          && (exceptions == null || Stream.of(exceptions).noneMatch(exception -> exception.isInstance(e)));
 
-        if (!shouldRetry) {
+        if (!shouldRetry || (budget != null && !budget.tryRetry())) {
           throw e;
         }
+
+        long delay = backoff.delay(i);
+
+        if (e instanceof ServerBusyException) {
+          // Never come back sooner than a busy node asked.
+          delay = Math.max(delay, ((ServerBusyException) e).getRetryAfter());
+        }
+
+        sleep(delay);
+
+        if (span != null) {
+          span.stage("backoff");
+        }
       }
     }
 
@@ -39,6 +92,20 @@ public final class Retryable<T> {
     return task.apply();
   }
 
+  private static void sleep(long millis) throws InterruptedIOException {
+    if (millis <= 0) {
+      return;
+    }
+
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry");
+    }
+  }
+
   public interface Task<T> {
     T apply() throws Exception;
   }
@@ -0,0 +1,18 @@
+package jamsesso.meshmap;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * A node turned a request away because it already has as much work as it will take on. The request was not applied.
+ */
+public class ServerBusyException extends IOException {
+  // Milliseconds the node asked the sender to wait before trying again.
+  private final @Getter long retryAfter;
+
+  public ServerBusyException(Node node, long retryAfter) {
+    super("Node is busy, retry after " + retryAfter + "ms: " + node);
+    this.retryAfter = retryAfter;
+  }
+}
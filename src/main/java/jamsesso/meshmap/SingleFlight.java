@@ -0,0 +1,89 @@
+package jamsesso.meshmap;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent identical calls share one execution. The first caller for a key runs the call, and callers that
+ * arrive while it is running wait for its result, or its exception, instead of running their own.
+ *
+ * A caller never joins a call that started before the last fence. Fencing after every completed write keeps a thread
+ * from reading a value older than its own write through a call that was already in flight.
+ */
+class SingleFlight<K> {
+  private final Map<K, Flight> flights = new ConcurrentHashMap<>();
+  private final AtomicLong epoch = new AtomicLong();
+  private final AtomicLong mergedCount = new AtomicLong();
+
+  /**
+   * How many calls were answered by another caller's call.
+   */
+  long getMergedCount() {
+    return mergedCount.get();
+  }
+
+  void fence() {
+    epoch.incrementAndGet();
+  }
+
+  @SuppressWarnings("unchecked")
+  <T> T call(K key, Supplier<T> call) {
+    Flight mine = new Flight(epoch.get());
+
+    // Join a call for the key unless it started before the last fence, in which case it is replaced.
+    Flight flight = flights.merge(key, mine, (running, fresh) -> running.epoch >= fresh.epoch ? running : fresh);
+
+    if (flight != mine) {
+      mergedCount.incrementAndGet();
+      return (T) flight.await();
+    }
+
+    try {
+      T result = call.get();
+      mine.result.complete(result);
+      return result;
+    }
+    catch (RuntimeException | Error e) {
+      mine.result.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      flights.remove(key, mine);
+    }
+  }
+
+  private static class Flight {
+    private final long epoch;
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    Flight(long epoch) {
+      this.epoch = epoch;
+    }
+
+    Object await() {
+      try {
+        return result.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MeshMapRuntimeException("Interrupted while waiting for a shared call", e);
+      }
+      catch (ExecutionException e) {
+        // Rethrow the failure as the caller that ran the call saw it, so that a KeyMovedException is followed.
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+
+        throw new MeshMapRuntimeException(e.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Describes a snapshot of a map: which partition files it is made of, which node wrote each one and how many entries
+ * each holds. Stored next to the partitions as a properties file, so it can be inspected by hand.
+ */
+@Value
+public class SnapshotManifest {
+  public static final String FILE_NAME = "manifest.properties";
+  private static final int VERSION = 1;
+
+  String map;
+  long created;
+  List<Partition> partitions;
+
+  public long getEntries() {
+    return partitions.stream().mapToLong(Partition::getEntries).sum();
+  }
+
+  public long getBytes() {
+    return partitions.stream().mapToLong(Partition::getBytes).sum();
+  }
+
+  public static SnapshotManifest read(File directory) throws IOException {
+    Properties properties = new Properties();
+
+    try (InputStream in = new FileInputStream(new File(directory, FILE_NAME))) {
+      properties.load(in);
+    }
+
+    if (Integer.parseInt(properties.getProperty("version", "0")) != VERSION) {
+      throw new IOException("Unsupported snapshot version: " + properties.getProperty("version"));
+    }
+
+    int count = Integer.parseInt(properties.getProperty("partitions"));
+    List<Partition> partitions = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      String prefix = "partition." + i + ".";
+      partitions.add(new Partition(
+        properties.getProperty(prefix + "file"),
+        properties.getProperty(prefix + "node"),
+        Long.parseLong(properties.getProperty(prefix + "entries")),
+        Long.parseLong(properties.getProperty(prefix + "bytes"))));
+    }
+
+    return new SnapshotManifest(properties.getProperty("map"), Long.parseLong(properties.getProperty("created")),
+      partitions);
+  }
+
+  void write(File directory) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("version", String.valueOf(VERSION));
+    properties.setProperty("map", map);
+    properties.setProperty("created", String.valueOf(created));
+    properties.setProperty("partitions", String.valueOf(partitions.size()));
+
+    for (int i = 0; i < partitions.size(); i++) {
+      Partition partition = partitions.get(i);
+      String prefix = "partition." + i + ".";
+      properties.setProperty(prefix + "file", partition.getFile());
+      properties.setProperty(prefix + "node", partition.getNode());
+      properties.setProperty(prefix + "entries", String.valueOf(partition.getEntries()));
+      properties.setProperty(prefix + "bytes", String.valueOf(partition.getBytes()));
+    }
+
+    try (OutputStream out = new FileOutputStream(new File(directory, FILE_NAME))) {
+      properties.store(out, "MeshMap snapshot");
+    }
+  }
+
+  @Value
+  public static class Partition implements Serializable {
+    String file;
+
+    // Host and port of the node that wrote the partition.
+    String node;
+    long entries;
+    long bytes;
+  }
+}
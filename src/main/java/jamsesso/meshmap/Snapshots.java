@@ -0,0 +1,250 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Takes and restores snapshots of a map. Every node writes the entries it owns to a partition file of its own, all at
+ * the same time, and the node that asked writes the manifest. Restoring hands each partition file to a node, which
+ * streams it into the map with a BulkLoader so that every entry goes straight to its current owner.
+ *
+ * Partitions are gzipped records in the RecordWriter.binary format. Writing or loading a partition can take longer
+ * than a request may, so nodes run it in the background and the requesting node polls for the outcome.
+ */
+class Snapshots {
+  static final String TYPE_SNAPSHOT = "SNAPSHOT";
+  static final String TYPE_RESTORE = "RESTORE";
+  static final String TYPE_JOB = "JOB";
+
+  private static final long POLL_TIMEOUT = 5_000;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Executor JOB_THREADS = Threads.perTask("meshmap-snapshot");
+
+  private final String name;
+  private final MeshMapCluster cluster;
+  private final MeshMapServer server;
+  private final Node self;
+  private final LocalStore store;
+  private final MeshMap<Object, Object> map;
+  private final Map<UUID, CompletableFuture<Object>> jobs = new ConcurrentHashMap<>();
+
+  Snapshots(String name, MeshMapCluster cluster, MeshMapServer server, Node self, LocalStore store,
+            MeshMap<Object, Object> map) {
+    this.name = name;
+    this.cluster = cluster;
+    this.server = server;
+    this.self = self;
+    this.store = store;
+    this.map = map;
+  }
+
+  SnapshotManifest snapshot(File directory) {
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      throw new MeshMapRuntimeException("Unable to create snapshot directory: " + directory);
+    }
+
+    List<Node> nodes = cluster.getAllNodes();
+    List<SnapshotManifest.Partition> partitions = Threads.fanOut(indexes(nodes.size()),
+      i -> (SnapshotManifest.Partition) run(nodes.get(i), TYPE_SNAPSHOT,
+        new Task(UUID.randomUUID(), directory.getAbsolutePath(), "partition-" + i + ".gz")));
+
+    SnapshotManifest manifest = new SnapshotManifest(name, System.currentTimeMillis(), partitions);
+
+    try {
+      manifest.write(directory);
+    }
+    catch (IOException e) {
+      throw new MeshMapRuntimeException("Unable to write snapshot manifest", e);
+    }
+
+    return manifest;
+  }
+
+  long restore(File directory) {
+    SnapshotManifest manifest;
+
+    try {
+      manifest = SnapshotManifest.read(directory);
+    }
+    catch (IOException e) {
+      throw new MeshMapRuntimeException("Unable to read snapshot manifest", e);
+    }
+
+    List<Node> nodes = cluster.getAllNodes();
+    List<SnapshotManifest.Partition> partitions = manifest.getPartitions();
+
+    return Threads.fanOut(indexes(partitions.size()), i -> {
+      SnapshotManifest.Partition partition = partitions.get(i);
+      Task task = new Task(UUID.randomUUID(), directory.getAbsolutePath(), partition.getFile());
+
+      // Prefer the node that wrote the partition, which has it even if the directory is not shared. Any other node
+      // needs a shared directory, and if it cannot see the file this node loads it instead.
+      Node node = nodes.stream()
+        .filter(candidate -> address(candidate).equals(partition.getNode()))
+        .findFirst()
+        .orElse(nodes.get(i % nodes.size()));
+
+      Object loaded = run(node, TYPE_RESTORE, task);
+
+      if (loaded == null && !node.equals(self)) {
+        loaded = run(self, TYPE_RESTORE, task);
+      }
+
+      if (loaded == null) {
+        throw new MeshMapRuntimeException("Partition file not found: " + partition.getFile());
+      }
+
+      return (Long) loaded;
+    }).stream()
+      .mapToLong(Long::longValue)
+      .sum();
+  }
+
+  /**
+   * Start a snapshot or restore task on this node. Answers NO if the partition file to restore is not here.
+   */
+  Message start(String type, Task task) {
+    File file = new File(task.getDirectory(), task.getFile());
+
+    if (TYPE_RESTORE.equals(type) && !file.isFile()) {
+      return Message.NO;
+    }
+
+    jobs.put(task.getId(), CompletableFuture.supplyAsync(() -> {
+      try {
+        return TYPE_SNAPSHOT.equals(type) ? write(file) : load(file);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, JOB_THREADS));
+
+    return Message.ACK;
+  }
+
+  /**
+   * Wait a while for a task to finish. Answers NO if it is still running.
+   */
+  Message poll(UUID id) {
+    CompletableFuture<Object> job = jobs.get(id);
+
+    if (job == null) {
+      return new Message(Message.TYPE_ERR, "Unknown snapshot task: " + id);
+    }
+
+    try {
+      Object result = job.get(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+      jobs.remove(id);
+      return new Message(TYPE_JOB, result);
+    }
+    catch (TimeoutException e) {
+      return Message.NO;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Message.NO;
+    }
+    catch (ExecutionException e) {
+      jobs.remove(id);
+      return new Message(Message.TYPE_ERR, String.valueOf(e.getCause()));
+    }
+  }
+
+  private SnapshotManifest.Partition write(File file) throws IOException {
+    long entries = 0;
+
+    try (RecordWriter<Object, Object> writer = RecordWriter.binary(
+      new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+      for (Object key : store.keySet()) {
+        // Read spilled entries in place rather than pulling the whole store through memory.
+        Object value = store.peek(key);
+
+        if (value != null) {
+          writer.write(key, value);
+          entries++;
+        }
+      }
+    }
+
+    return new SnapshotManifest.Partition(file.getName(), address(self), entries, file.length());
+  }
+
+  private long load(File file) throws IOException {
+    try (RecordReader<Object, Object> reader = RecordReader.binary(
+      new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+      return BulkLoader.into(map).load(reader);
+    }
+  }
+
+  /**
+   * Run a task on a node and wait for its result. Returns null if a restore found no partition file there.
+   */
+  private Object run(Node node, String type, Task task) {
+    Message response = node.equals(self) ? start(type, task) : send(node, new Message(type, task));
+
+    if (Message.NO.equals(response)) {
+      return null;
+    }
+
+    if (!Message.ACK.equals(response)) {
+      throw new MeshMapRuntimeException("Unexpected response from remote node: " + response);
+    }
+
+    while (true) {
+      response = node.equals(self) ? poll(task.getId()) : send(node, new Message(TYPE_JOB, task.getId()));
+
+      if (TYPE_JOB.equals(response.getType())) {
+        return response.getPayload(Object.class);
+      }
+
+      if (Message.TYPE_ERR.equals(response.getType())) {
+        throw new MeshMapRuntimeException("Node " + node + " failed to " + type.toLowerCase() + " "
+          + task.getFile() + ": " + response.getPayload(String.class));
+      }
+    }
+  }
+
+  private Message send(Node node, Message message) {
+    try {
+      return server.message(node, message.withMap(name));
+    }
+    catch (IOException e) {
+      throw new MeshMapRuntimeException(e);
+    }
+  }
+
+  private static List<Integer> indexes(int count) {
+    return IntStream.range(0, count).boxed().collect(Collectors.toList());
+  }
+
+  private static String address(Node node) {
+    return node.getAddress().getHostString() + ":" + node.getAddress().getPort();
+  }
+
+  @Value
+  static class Task implements Serializable {
+    UUID id;
+    String directory;
+    String file;
+  }
+}
@@ -0,0 +1,280 @@
+package jamsesso.meshmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import static java.lang.System.err;
+
+/**
+ * Sends every message over its own TCP connection. Connections to this node are accepted on a single thread and each
+ * is served on a thread of its own, so how many messages are handled at once is up to the message handler. When bound
+ * with a connection limit, connections beyond it are answered BUSY on the accepting thread, so a flood of requests
+ * cannot make the node start a thread for each.
+ *
+ * Connecting gives up after the connect timeout with a ConnectException, which is safe to retry because the other
+ * node never saw the message. Waiting for a response gives up after the request timeout with a SocketTimeoutException;
+ * the other node may still apply the message, so it is not retried.
+ */
+public class SocketTransport implements Transport {
+  public static final int DEFAULT_CONNECT_TIMEOUT = 1_000;
+  public static final int DEFAULT_REQUEST_TIMEOUT = 60_000;
+
+  private final Map<Node, Integer> versions = new ConcurrentHashMap<>();
+  private final int connectTimeout;
+  private final int requestTimeout;
+  private final ExecutorService connections = Threads.perTask("meshmap-connection");
+  private MessageHandler messageHandler;
+  private Semaphore slots;
+  private Supplier<Message> busy;
+  private volatile boolean started = false;
+  private volatile IOException failure = null;
+  private ServerSocket serverSocket;
+
+  public SocketTransport() {
+    this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * @param connectTimeout Milliseconds to wait for a connection, or 0 to wait forever.
+   * @param requestTimeout Milliseconds to wait for a response, or 0 to wait forever.
+   */
+  public SocketTransport(int connectTimeout, int requestTimeout) {
+    this.connectTimeout = connectTimeout;
+    this.requestTimeout = requestTimeout;
+  }
+
+  @Override
+  public void bind(Node self, MessageHandler messageHandler) throws IOException {
+    bind(self, messageHandler, Integer.MAX_VALUE, null);
+  }
+
+  @Override
+  public void bind(Node self, MessageHandler messageHandler, int maxConnections, Supplier<Message> busy)
+    throws IOException {
+    this.messageHandler = messageHandler;
+    this.slots = busy == null ? null : new Semaphore(maxConnections);
+    this.busy = busy;
+    new Thread(() -> serve(self)).start();
+
+    // Wait for the server to start.
+    while (!started);
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public Message send(Node node, Message message) throws IOException {
+    return exchange(node, message, getVersion(node), null);
+  }
+
+  @Override
+  public Message send(Node node, Message message, TraceSpan span) throws IOException {
+    int version = getVersion(node);
+    span.stage("negotiate");
+
+    Message response = exchange(node, message.withTrace(span.getTraceId()), version, span);
+    long[] timings = response.getTimings();
+
+    // Whatever the remote node did not account for was spent on the wire or waiting to be accepted. The clocks of
+    // both sides overlap slightly, so never let the remainder go negative.
+    if (response.getTraceId() == span.getTraceId() && timings.length == 2) {
+      span.record("server.read", timings[0]);
+      span.record("server.handle", timings[1]);
+      span.record("network", -Math.min(timings[0] + timings[1], span.get("network")));
+    }
+
+    return response;
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (serverSocket != null) {
+      serverSocket.close();
+    }
+
+    connections.shutdown();
+  }
+
+  /**
+   * The highest protocol version both this node and the given node speak. Nodes that predate version negotiation
+   * answer the VERSION message with a plain ACK, so they are spoken to in version 1.
+   */
+  @Override
+  public int getVersion(Node node) throws IOException {
+    Integer version = versions.get(node);
+
+    if (version == null) {
+      Message response = exchange(node, new Message(Message.TYPE_VERSION, new byte[] {Message.CURRENT_VERSION}),
+        Message.VERSION_1, null);
+
+      // A node that is too busy to even read the question says nothing about its version.
+      if (Message.TYPE_BUSY.equals(response.getType())) {
+        throw new ServerBusyException(node, response.getPayloadAsInt());
+      }
+
+      version = Message.TYPE_VERSION.equals(response.getType())
+        ? Math.min(Message.CURRENT_VERSION, response.getPayload()[0])
+        : Message.VERSION_1;
+      versions.put(node, version);
+    }
+
+    return version;
+  }
+
+  private Message exchange(Node node, Message message, int version, TraceSpan span) throws IOException {
+    try (Socket socket = new Socket()) {
+      connect(socket, node);
+      socket.setSoTimeout(requestTimeout);
+      stage(span, "connect");
+
+      try (OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+           InputStream inputStream = new BufferedInputStream(socket.getInputStream())) {
+        message.write(outputStream, version);
+        outputStream.flush();
+        stage(span, "write");
+
+        Message response = Message.read(inputStream);
+        stage(span, "network");
+        return response;
+      }
+    }
+  }
+
+  private void connect(Socket socket, Node node) throws IOException {
+    try {
+      socket.connect(node.getAddress(), connectTimeout);
+    }
+    catch (SocketTimeoutException e) {
+      ConnectException timeout = new ConnectException("Timed out connecting to " + node);
+      timeout.initCause(e);
+      throw timeout;
+    }
+  }
+
+  private static void stage(TraceSpan span, String name) {
+    if (span != null) {
+      span.stage(name);
+    }
+  }
+
+  private void serve(Node self) {
+    try {
+      serverSocket = new ServerSocket(self.getAddress().getPort());
+    }
+    catch (IOException e) {
+      failure = e;
+      return;
+    }
+    finally {
+      started = true;
+    }
+
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+
+        if (slots != null && !slots.tryAcquire()) {
+          turnAway(socket);
+          continue;
+        }
+
+        try {
+          connections.execute(() -> {
+            try {
+              respond(socket);
+            }
+            finally {
+              release();
+            }
+          });
+        }
+        catch (RejectedExecutionException e) {
+          // Node is going down.
+          release();
+          socket.close();
+        }
+      }
+      catch (SocketException e) {
+        // Socket was closed. Nothing to do here. Node is going down.
+      }
+      catch (IOException e) {
+        // TODO Better error handling strategy is needed.
+        err.println("Unable to accept connection");
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Answer BUSY without reading the message. The answer is sent in version 1, which every node reads. If the sender is
+   * still writing when the connection closes, it sees the connection reset instead, which it retries just the same.
+   */
+  private void turnAway(Socket connection) {
+    try (Socket socket = connection) {
+      OutputStream outputStream = socket.getOutputStream();
+      busy.get().write(outputStream, Message.VERSION_1);
+      outputStream.flush();
+      socket.shutdownOutput();
+    }
+    catch (IOException e) {
+      // The sender sees the connection fail, and retries.
+    }
+  }
+
+  private void release() {
+    if (slots != null) {
+      slots.release();
+    }
+  }
+
+  private void respond(Socket connection) {
+    try (Socket socket = connection;
+         InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+         OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream())) {
+      // Answer in the version the request was sent in.
+      int version = Message.peekVersion(inputStream);
+      long arrived = System.nanoTime();
+      Message message = Message.read(inputStream);
+      long read = System.nanoTime();
+      Message response = Message.TYPE_VERSION.equals(message.getType())
+        ? new Message(Message.TYPE_VERSION, new byte[] {Message.CURRENT_VERSION})
+        : messageHandler.handle(message);
+
+      if(response == null) {
+        response = Message.ACK;
+      }
+
+      // Tell a tracing caller how long reading and handling its request took here.
+      if (message.isTraced()) {
+        response = response.withTrace(message.getTraceId(), read - arrived, System.nanoTime() - read);
+      }
+
+      response.write(outputStream, version);
+      outputStream.flush();
+    }
+    catch (SocketException e) {
+      // Socket was closed. Nothing to do here. Node is going down.
+    }
+    catch (IOException e) {
+      // TODO Better error handling strategy is needed.
+      err.println("Unable to serve connection");
+      e.printStackTrace();
+    }
+  }
+}
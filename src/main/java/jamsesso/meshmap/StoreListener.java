@@ -0,0 +1,21 @@
+package jamsesso.meshmap;
+
+/**
+ * Observes the mutations applied to a node's local store. Listeners are called while the store lock is held.
+ */
+interface StoreListener {
+  /**
+   * Inactive listeners are skipped, which lets the store avoid locking and allocating events altogether.
+   */
+  boolean isActive();
+
+  void onEvent(EntryEvent<Object, Object> event);
+
+  /**
+   * The node a key was handed over to, or null if this node may still write it. Checked before every write, even
+   * while the listener is inactive, and under the store lock whenever the store is guarded.
+   */
+  default Node movedTo(Object key) {
+    return null;
+  }
+}
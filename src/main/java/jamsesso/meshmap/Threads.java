@@ -0,0 +1,120 @@
+package jamsesso.meshmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Where blocking work runs. Every thread that may wait on the network comes from here.
+ *
+ * On Java 21 or later each task gets a virtual thread of its own, so a node can have tens of thousands of requests in
+ * flight without running out of platform threads, and fan-outs do not block the threads of the common ForkJoinPool on
+ * sockets. Virtual threads are looked up reflectively, so the library still builds for and runs on Java 8, where it
+ * uses pools of platform threads instead. Start the JVM with -Dmeshmap.virtualThreads=false to use platform threads on
+ * any version.
+ */
+final class Threads {
+  private static final boolean ENABLED = !"false".equals(System.getProperty("meshmap.virtualThreads"));
+
+  // Null unless virtual threads are enabled and the JVM has them.
+  private static final ExecutorService FAN_OUT = ENABLED ? virtualPerTask("meshmap-fan-out-", true) : null;
+
+  private Threads() {
+  }
+
+  /**
+   * An executor that runs each task on a thread of its own, reusing idle platform threads. Threads are daemons named
+   * after the work they do.
+   */
+  static ExecutorService perTask(String name) {
+    ExecutorService executor = FAN_OUT == null ? null : virtualPerTask(name, false);
+
+    if (executor != null) {
+      return executor;
+    }
+
+    return Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Apply the task to every item at the same time and wait for all of them. Results are in the order of the items. If
+   * any task throws, one of the exceptions is rethrown.
+   */
+  static <T, R> List<R> fanOut(Collection<? extends T> items, Function<? super T, ? extends R> task) {
+    if (FAN_OUT == null) {
+      return items.parallelStream()
+        .map(task)
+        .collect(Collectors.toList());
+    }
+
+    // Not worth a thread.
+    if (items.size() < 2) {
+      return items.stream()
+        .map(task)
+        .collect(Collectors.toList());
+    }
+
+    List<CompletableFuture<? extends R>> futures = new ArrayList<>(items.size());
+
+    for (T item : items) {
+      futures.add(CompletableFuture.supplyAsync(() -> task.apply(item), FAN_OUT));
+    }
+
+    List<R> results = new ArrayList<>(futures.size());
+
+    for (CompletableFuture<? extends R> future : futures) {
+      results.add(join(future));
+    }
+
+    return results;
+  }
+
+  /**
+   * An executor that starts a virtual thread for each task, or null if the JVM has no virtual threads.
+   */
+  private static ExecutorService virtualPerTask(String name, boolean numbered) {
+    try {
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+      builder = numbered
+        ? builderType.getMethod("name", String.class, long.class).invoke(builder, name, 0L)
+        : builderType.getMethod("name", String.class).invoke(builder, name);
+
+      ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+        .invoke(null, factory);
+    }
+    catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static <R> R join(CompletableFuture<R> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+
+      throw new MeshMapRuntimeException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package jamsesso.meshmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU: new keys enter a small LRU admission window. When the store is full, the eldest key in the window only
+ * makes it into the main (segmented LRU) region if it has been seen more often than the key it would displace. This
+ * keeps one-hit wonders from flushing out popular keys under skewed access patterns.
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy {
+  private final long maximum;
+  private final long windowMaximum;
+  private final long protectedMaximum;
+  private final FrequencySketch sketch;
+  private final Segment window = new Segment();
+  private final Segment probation = new Segment();
+  private final Segment protectedSegment = new Segment();
+
+  public TinyLfuEvictionPolicy(long capacity) {
+    this.maximum = capacity;
+    this.windowMaximum = Math.max(1, capacity / 100);
+    this.protectedMaximum = (capacity - windowMaximum) * 80 / 100;
+    this.sketch = new FrequencySketch(capacity);
+  }
+
+  @Override
+  public void recordAccess(Object key) {
+    sketch.increment(key);
+
+    if (window.touch(key) || protectedSegment.touch(key)) {
+      return;
+    }
+
+    Long weight = probation.remove(key);
+
+    if (weight != null) {
+      // Second hit in the main region promotes the key to the protected segment.
+      protectedSegment.add(key, weight);
+      demoteProtected();
+    }
+  }
+
+  @Override
+  public void recordWrite(Object key, long weight) {
+    sketch.increment(key);
+
+    if (window.update(key, weight) || protectedSegment.update(key, weight) || probation.update(key, weight)) {
+      demoteProtected();
+      return;
+    }
+
+    window.add(key, weight);
+
+    // Let the window spill into the main region for as long as the main region has room.
+    while (window.weight > windowMaximum) {
+      Map.Entry<Object, Long> eldest = window.eldest();
+
+      if (mainWeight() + eldest.getValue() > maximum - windowMaximum) {
+        break;
+      }
+
+      window.remove(eldest.getKey());
+      probation.add(eldest.getKey(), eldest.getValue());
+    }
+  }
+
+  @Override
+  public void recordRemoval(Object key) {
+    if (window.remove(key) == null && probation.remove(key) == null) {
+      protectedSegment.remove(key);
+    }
+  }
+
+  @Override
+  public long weightedSize() {
+    return window.weight + mainWeight();
+  }
+
+  @Override
+  public Object evict() {
+    Map.Entry<Object, Long> candidate = window.eldest();
+    Segment victimSegment = probation.isEmpty() ? protectedSegment : probation;
+    Map.Entry<Object, Long> victim = victimSegment.eldest();
+
+    if (candidate == null && victim == null) {
+      return null;
+    }
+
+    if (victim == null) {
+      window.remove(candidate.getKey());
+      return candidate.getKey();
+    }
+
+    if (candidate == null) {
+      victimSegment.remove(victim.getKey());
+      return victim.getKey();
+    }
+
+    // Admission: the window candidate replaces the main victim only if it is more popular.
+    if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+      victimSegment.remove(victim.getKey());
+      window.remove(candidate.getKey());
+      probation.add(candidate.getKey(), candidate.getValue());
+      return victim.getKey();
+    }
+
+    window.remove(candidate.getKey());
+    return candidate.getKey();
+  }
+
+  @Override
+  public void clear() {
+    window.clear();
+    probation.clear();
+    protectedSegment.clear();
+    sketch.clear();
+  }
+
+  private long mainWeight() {
+    return probation.weight + protectedSegment.weight;
+  }
+
+  private void demoteProtected() {
+    while (protectedSegment.weight > protectedMaximum && !protectedSegment.isEmpty()) {
+      Map.Entry<Object, Long> eldest = protectedSegment.eldest();
+      protectedSegment.remove(eldest.getKey());
+      probation.add(eldest.getKey(), eldest.getValue());
+    }
+  }
+
+  private static class Segment {
+    private final LinkedHashMap<Object, Long> entries = new LinkedHashMap<>();
+    private long weight = 0;
+
+    boolean isEmpty() {
+      return entries.isEmpty();
+    }
+
+    Map.Entry<Object, Long> eldest() {
+      return entries.isEmpty() ? null : entries.entrySet().iterator().next();
+    }
+
+    void add(Object key, long keyWeight) {
+      entries.put(key, keyWeight);
+      weight += keyWeight;
+    }
+
+    Long remove(Object key) {
+      Long keyWeight = entries.remove(key);
+
+      if (keyWeight != null) {
+        weight -= keyWeight;
+      }
+
+      return keyWeight;
+    }
+
+    boolean touch(Object key) {
+      Long keyWeight = entries.remove(key);
+
+      if (keyWeight == null) {
+        return false;
+      }
+
+      entries.put(key, keyWeight);
+      return true;
+    }
+
+    boolean update(Object key, long keyWeight) {
+      Long previous = remove(key);
+
+      if (previous == null) {
+        return false;
+      }
+
+      add(key, keyWeight);
+      return true;
+    }
+
+    void clear() {
+      entries.clear();
+      weight = 0;
+    }
+  }
+}
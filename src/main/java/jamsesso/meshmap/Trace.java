@@ -0,0 +1,44 @@
+package jamsesso.meshmap;
+
+import lombok.Value;
+
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sampled call from this node to another one, with the nanoseconds spent in each stage. Stages prefixed with
+ * "server." were measured by the node that handled the call, and "network" is whatever the round trip took beyond
+ * them: transfer time plus time spent waiting for the remote node to accept the connection.
+ */
+@Value
+public class Trace {
+  long traceId;
+  Node node;
+  String map;
+  String type;
+  long startedAt;
+  long duration;
+  int attempts;
+  Map<String, Long> stages;
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder()
+      .append(String.format("%016x ", traceId))
+      .append(type).append(" '").append(map).append("' to ").append(node)
+      .append(" took ").append(millis(duration)).append("ms");
+
+    if (attempts > 1) {
+      builder.append(" in ").append(attempts).append(" attempts");
+    }
+
+    StringJoiner breakdown = new StringJoiner(", ", " [", "]");
+    stages.forEach((stage, nanos) -> breakdown.add(stage + '=' + millis(nanos) + "ms"));
+    return builder.append(breakdown).toString();
+  }
+
+  private static String millis(long nanos) {
+    return String.valueOf(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
@@ -0,0 +1,57 @@
+package jamsesso.meshmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the stage timings of a single sampled call while it is in progress. Transports call stage() as each stage
+ * of a call completes.
+ */
+public final class TraceSpan {
+  private final long traceId;
+  private final long start = System.nanoTime();
+  private final Map<String, Long> stages = new LinkedHashMap<>();
+  private long mark = start;
+  private int attempts = 0;
+
+  TraceSpan(long traceId) {
+    this.traceId = traceId;
+  }
+
+  public long getTraceId() {
+    return traceId;
+  }
+
+  /**
+   * Attribute the time since the previous stage ended to the named stage.
+   */
+  public void stage(String name) {
+    long now = System.nanoTime();
+    record(name, now - mark);
+    mark = now;
+  }
+
+  /**
+   * Attribute a duration measured elsewhere to the named stage.
+   */
+  public void record(String name, long nanos) {
+    stages.merge(name, nanos, Long::sum);
+  }
+
+  /**
+   * The time attributed to the named stage so far.
+   */
+  public long get(String name) {
+    return stages.getOrDefault(name, 0L);
+  }
+
+  void attempt() {
+    attempts++;
+  }
+
+  Trace finish(Node node, Message message) {
+    long duration = System.nanoTime() - start;
+    long startedAt = System.currentTimeMillis() - duration / 1_000_000;
+    return new Trace(traceId, node, message.getMap(), message.getType(), startedAt, duration, attempts, stages);
+  }
+}
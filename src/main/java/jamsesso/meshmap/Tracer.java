@@ -0,0 +1,129 @@
+package jamsesso.meshmap;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static java.lang.System.err;
+
+/**
+ * Samples a fraction of the calls this node makes to other nodes and keeps the slowest of them. Calls that are not
+ * sampled cost one random number.
+ */
+public class Tracer implements TracerMBean {
+  private final int capacity;
+  private final PriorityQueue<Trace> slowest = new PriorityQueue<>(Comparator.comparingLong(Trace::getDuration));
+  private volatile double sampleRate;
+  private volatile long threshold = 0;
+  private ObjectName objectName;
+
+  public Tracer(MeshMapConfig config) {
+    this.sampleRate = config.getTraceSampleRate();
+    this.capacity = config.getTraceCapacity();
+  }
+
+  /**
+   * Start a span for a call if it is sampled, or return null.
+   */
+  TraceSpan sample() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    if (sampleRate <= 0 || random.nextDouble() >= sampleRate) {
+      return null;
+    }
+
+    long traceId;
+
+    do {
+      traceId = random.nextLong();
+    }
+    while (traceId == 0);
+
+    return new TraceSpan(traceId);
+  }
+
+  void record(Trace trace) {
+    // Most traces are faster than the slowest ones already kept, so skip the lock for them.
+    if (capacity <= 0 || trace.getDuration() <= threshold) {
+      return;
+    }
+
+    synchronized (slowest) {
+      slowest.offer(trace);
+
+      if (slowest.size() > capacity) {
+        slowest.poll();
+      }
+
+      threshold = slowest.size() < capacity ? 0 : slowest.peek().getDuration();
+    }
+  }
+
+  /**
+   * The slowest sampled calls, slowest first.
+   */
+  public List<Trace> getSlowest() {
+    List<Trace> traces;
+
+    synchronized (slowest) {
+      traces = new ArrayList<>(slowest);
+    }
+
+    traces.sort(Comparator.comparingLong(Trace::getDuration).reversed());
+    return traces;
+  }
+
+  @Override
+  public String[] getSlowestOperations() {
+    return getSlowest().stream().map(Trace::toString).toArray(String[]::new);
+  }
+
+  @Override
+  public double getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public void setSampleRate(double sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  @Override
+  public void clear() {
+    synchronized (slowest) {
+      slowest.clear();
+      threshold = 0;
+    }
+  }
+
+  void register(Node self) {
+    try {
+      ObjectName name = new ObjectName("jamsesso.meshmap:type=Tracer,node=" + ObjectName.quote(self.toString()));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    }
+    catch (JMException e) {
+      // Tracing does not depend on JMX, so carry on. Only unregister a bean this tracer registered itself.
+      err.println("Tracer of node " + self + " is not available through JMX: " + e);
+    }
+  }
+
+  void unregister() {
+    if (objectName == null) {
+      return;
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+    catch (JMException e) {
+      // Already gone. Nothing to do here.
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package jamsesso.meshmap;
+
+public interface TracerMBean {
+  double getSampleRate();
+
+  void setSampleRate(double sampleRate);
+
+  String[] getSlowestOperations();
+
+  void clear();
+}
@@ -0,0 +1,45 @@
+package jamsesso.meshmap;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Moves messages between nodes. Each node binds its own transport when it starts serving.
+ */
+public interface Transport extends AutoCloseable {
+  /**
+   * Start handing the messages sent to the given node to the handler.
+   */
+  void bind(Node self, MessageHandler handler) throws IOException;
+
+  /**
+   * Start handing messages to the handler, but answer with the busy response straight away, without reading the
+   * message, while the given number of connections are already being served. Transports that do not hold a connection
+   * per message ignore the limit.
+   */
+  default void bind(Node self, MessageHandler handler, int maxConnections, Supplier<Message> busy) throws IOException {
+    bind(self, handler);
+  }
+
+  /**
+   * Deliver a message to a node and wait for its response.
+   */
+  Message send(Node node, Message message) throws IOException;
+
+  /**
+   * The protocol version spoken with the given node. Nodes spoken to in version 1 predate version negotiation, and
+   * only understand the messages of the original protocol.
+   */
+  default int getVersion(Node node) throws IOException {
+    return Message.CURRENT_VERSION;
+  }
+
+  /**
+   * Deliver a sampled message, recording how long each stage of the delivery took.
+   */
+  default Message send(Node node, Message message, TraceSpan span) throws IOException {
+    Message response = send(node, message);
+    span.stage("send");
+    return response;
+  }
+}
@@ -0,0 +1,9 @@
+package jamsesso.meshmap;
+
+@FunctionalInterface
+public interface Weigher {
+  Weigher ENTRIES = (key, value) -> 1;
+  Weigher SERIALIZED_SIZE = (key, value) -> Message.toBytes(key).length + Message.toBytes(value).length;
+
+  long weigh(Object key, Object value);
+}
@@ -0,0 +1,182 @@
+package jamsesso.meshmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import static java.lang.System.err;
+
+/**
+ * Buffers puts per owner node so they can be sent in batches. Repeated writes to the same key replace each other in
+ * the buffer. Entries stay visible in the buffer until the owner has acknowledged the batch that contains them, so a
+ * client always reads its own pending writes.
+ */
+class WriteBehindBuffer implements AutoCloseable {
+  private final Map<Node, Pending> buffers = new ConcurrentHashMap<>();
+  private final BiConsumer<Node, Map<Object, Object>> writer;
+  private final int batchSize;
+  private final int maxPending;
+  private final ScheduledExecutorService scheduler;
+
+  WriteBehindBuffer(MeshMapConfig config, BiConsumer<Node, Map<Object, Object>> writer) {
+    this.writer = writer;
+    this.batchSize = config.getWriteBehindBatchSize();
+    this.maxPending = config.getWriteBehindMaxPending();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "meshmap-write-behind");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    long interval = config.getWriteBehindFlushInterval();
+    scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Buffer a write, blocking while the buffer for the node is full. Returns the value previously buffered for the
+   * key, if any.
+   */
+  Object put(Node node, Object key, Object value) {
+    Pending pending = buffers.computeIfAbsent(node, n -> new Pending());
+    Object previous;
+    boolean full;
+
+    pending.lock.lock();
+
+    try {
+      while (pending.entries.size() >= maxPending && !pending.entries.containsKey(key)) {
+        try {
+          pending.drained.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new MeshMapRuntimeException("Interrupted while waiting for the write-behind buffer to drain", e);
+        }
+      }
+
+      previous = pending.entries.put(key, value);
+      full = pending.entries.size() >= batchSize;
+    }
+    finally {
+      pending.lock.unlock();
+    }
+
+    if (full) {
+      scheduler.execute(() -> flushQuietly(node));
+    }
+
+    return previous;
+  }
+
+  Object get(Node node, Object key) {
+    Pending pending = buffers.get(node);
+
+    if (pending == null) {
+      return null;
+    }
+
+    pending.lock.lock();
+
+    try {
+      return pending.entries.get(key);
+    }
+    finally {
+      pending.lock.unlock();
+    }
+  }
+
+  /**
+   * Deliver every write buffered for the node so far. Flushes for the same node never overlap, which keeps the
+   * order of writes to a key intact.
+   */
+  void flush(Node node) {
+    Pending pending = buffers.get(node);
+
+    if (pending == null) {
+      return;
+    }
+
+    pending.flushLock.lock();
+
+    try {
+      Map<Object, Object> batch;
+      pending.lock.lock();
+
+      try {
+        if (pending.entries.isEmpty()) {
+          return;
+        }
+
+        batch = new LinkedHashMap<>(pending.entries);
+      }
+      finally {
+        pending.lock.unlock();
+      }
+
+      writer.accept(node, batch);
+      pending.lock.lock();
+
+      try {
+        // Only forget entries that were not overwritten while the batch was in flight.
+        Iterator<Map.Entry<Object, Object>> iterator = pending.entries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+          Map.Entry<Object, Object> entry = iterator.next();
+
+          if (batch.get(entry.getKey()) == entry.getValue()) {
+            iterator.remove();
+          }
+        }
+
+        pending.drained.signalAll();
+      }
+      finally {
+        pending.lock.unlock();
+      }
+    }
+    finally {
+      pending.flushLock.unlock();
+    }
+  }
+
+  void flush() {
+    buffers.keySet().forEach(this::flush);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    flush();
+  }
+
+  private void flushQuietly() {
+    buffers.keySet().forEach(this::flushQuietly);
+  }
+
+  private void flushQuietly(Node node) {
+    try {
+      flush(node);
+    }
+    catch (RuntimeException e) {
+      // The entries stay buffered and are retried on the next flush.
+      err.println("Unable to flush write-behind buffer to node: " + node);
+      e.printStackTrace();
+    }
+  }
+
+  private static class Pending {
+    // Locks rather than monitors, so that a virtual thread waiting for the buffer to drain does not pin its carrier
+    // thread while a flush is on the network.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final Map<Object, Object> entries = new LinkedHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+  }
+}
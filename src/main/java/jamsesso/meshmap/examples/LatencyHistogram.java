@@ -0,0 +1,89 @@
+package jamsesso.meshmap.examples;
+
+/**
+ * Counts latencies in nanoseconds in log-linear buckets: exact below 64ns, then 32 buckets per power of two, which
+ * keeps every reported value within about 3% of the recorded one. Not thread safe; give each thread its own and
+ * merge them at the end.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKETS = 32;
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count = 0;
+  private long sum = 0;
+  private long max = 0;
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[indexOf(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public void merge(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+
+    count += other.count;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * The smallest recorded latency that at least the given fraction of recorded latencies do not exceed.
+   */
+  public long getPercentile(double fraction) {
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+
+      if (seen >= rank) {
+        return Math.min(max, highestValueAt(i));
+      }
+    }
+
+    return max;
+  }
+
+  private static int indexOf(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+
+    // Shift the value down until it is in [32, 64); the shift picks the power of two and the rest the sub bucket.
+    int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  private static long highestValueAt(int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
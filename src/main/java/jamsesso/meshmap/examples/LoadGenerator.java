@@ -0,0 +1,301 @@
+package jamsesso.meshmap.examples;
+
+import jamsesso.meshmap.LocalMeshMapCluster;
+import jamsesso.meshmap.MeshMap;
+import jamsesso.meshmap.Node;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.System.err;
+import static java.lang.System.out;
+
+/**
+ * A YCSB style load generator. It joins a cluster, loads a fixed set of records, then runs a mix of operations from
+ * several client threads and prints the throughput and latency percentiles of each operation as JSON.
+ *
+ * Usage: LoadGenerator port directory [--option=value ...]
+ *
+ *   --records=100000      number of records loaded before the run
+ *   --operations=1000000  total number of operations in the run
+ *   --threads=4           client threads
+ *   --target=0            total operations per second, 0 to run flat out
+ *   --distribution=zipfian  zipfian or uniform key popularity
+ *   --read=0.95 --update=0.05 --scan=0 --batch=0  operation mix
+ *   --scanLength=10       consecutive keys read by one scan
+ *   --batchSize=100       entries written by one batch
+ *   --valueSize=100       characters per value
+ *
+ * With a target rate every thread follows a fixed schedule, and latency is measured from when an operation should
+ * have started rather than when it did. A stall then shows up in the latency of every operation it delayed instead of
+ * just the one that was running (coordinated omission).
+ */
+public class LoadGenerator {
+  private static final String[] OPERATIONS = {"read", "update", "scan", "batch"};
+  private static final int VALUE_POOL = 1_024;
+
+  private final MeshMap<String, String> map;
+  private final long records;
+  private final long operations;
+  private final int threads;
+  private final double target;
+  private final boolean zipfian;
+  private final double[] mix;
+  private final int scanLength;
+  private final int batchSize;
+  private final String[] values;
+  private final ZipfianGenerator zipfianGenerator;
+  private final AtomicLong errors = new AtomicLong();
+
+  private LoadGenerator(MeshMap<String, String> map, Map<String, String> options) {
+    this.map = map;
+    this.records = Long.parseLong(options.getOrDefault("records", "100000"));
+    this.operations = Long.parseLong(options.getOrDefault("operations", "1000000"));
+    this.threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+    this.target = Double.parseDouble(options.getOrDefault("target", "0"));
+    this.zipfian = !"uniform".equals(options.getOrDefault("distribution", "zipfian"));
+    this.mix = new double[] {
+      Double.parseDouble(options.getOrDefault("read", "0.95")),
+      Double.parseDouble(options.getOrDefault("update", "0.05")),
+      Double.parseDouble(options.getOrDefault("scan", "0")),
+      Double.parseDouble(options.getOrDefault("batch", "0"))
+    };
+    this.scanLength = Integer.parseInt(options.getOrDefault("scanLength", "10"));
+    this.batchSize = Integer.parseInt(options.getOrDefault("batchSize", "100"));
+    this.values = randomValues(Integer.parseInt(options.getOrDefault("valueSize", "100")));
+    this.zipfianGenerator = zipfian ? new ZipfianGenerator(records) : null;
+  }
+
+  public static void main(String[] args) throws Exception {
+    // Get input from arguments.
+    int port = Integer.parseInt(args[0]);
+    String directory = args[1];
+    Map<String, String> options = new HashMap<>();
+
+    for (int i = 2; i < args.length; i++) {
+      String[] option = args[i].replaceFirst("^--", "").split("=", 2);
+      options.put(option[0], option.length > 1 ? option[1] : "true");
+    }
+
+    Node self = new Node(new InetSocketAddress("127.0.0.1", port));
+
+    try (LocalMeshMapCluster cluster = new LocalMeshMapCluster(self, new File("cluster/" + directory));
+         MeshMap<String, String> map = cluster.join()) {
+      LoadGenerator generator = new LoadGenerator(map, options);
+      generator.load();
+      out.println(generator.run());
+      map.clear();
+    }
+  }
+
+  private void load() {
+    err.println("Loading " + records + " records...");
+    Map<String, String> batch = new HashMap<>();
+
+    for (long i = 0; i < records; i++) {
+      batch.put(key(i), values[(int) (i % VALUE_POOL)]);
+
+      if (batch.size() == batchSize || i == records - 1) {
+        map.putAll(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private String run() throws InterruptedException {
+    err.println("Running " + operations + " operations on " + threads + " threads...");
+    LatencyHistogram[][] histograms = new LatencyHistogram[threads][OPERATIONS.length];
+    List<Thread> workers = new ArrayList<>();
+    long start = System.nanoTime();
+
+    for (int t = 0; t < threads; t++) {
+      LatencyHistogram[] threadHistograms = histograms[t];
+      long count = operations / threads + (t < operations % threads ? 1 : 0);
+
+      for (int op = 0; op < OPERATIONS.length; op++) {
+        threadHistograms[op] = new LatencyHistogram();
+      }
+
+      Thread worker = new Thread(() -> work(count, start, threadHistograms), "load-generator-" + t);
+      worker.start();
+      workers.add(worker);
+    }
+
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    LatencyHistogram[] totals = new LatencyHistogram[OPERATIONS.length];
+
+    for (int op = 0; op < OPERATIONS.length; op++) {
+      totals[op] = new LatencyHistogram();
+
+      for (LatencyHistogram[] threadHistograms : histograms) {
+        totals[op].merge(threadHistograms[op]);
+      }
+    }
+
+    return report(elapsed, totals);
+  }
+
+  private void work(long count, long start, LatencyHistogram[] histograms) {
+    Random random = ThreadLocalRandom.current();
+    long interval = target > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * threads / target) : 0;
+
+    for (long i = 0; i < count; i++) {
+      long intended = start + i * interval;
+      long now = System.nanoTime();
+
+      if (interval > 0 && now < intended) {
+        LockSupport.parkNanos(intended - now);
+      }
+
+      int op = chooseOperation(random);
+      long began = interval > 0 ? intended : System.nanoTime();
+
+      try {
+        execute(op, random);
+      }
+      catch (RuntimeException e) {
+        errors.incrementAndGet();
+      }
+
+      histograms[op].record(System.nanoTime() - began);
+    }
+  }
+
+  private int chooseOperation(Random random) {
+    double total = 0;
+
+    for (double weight : mix) {
+      total += weight;
+    }
+
+    double choice = random.nextDouble() * total;
+
+    for (int op = 0; op < mix.length - 1; op++) {
+      choice -= mix[op];
+
+      if (choice < 0) {
+        return op;
+      }
+    }
+
+    return mix.length - 1;
+  }
+
+  private void execute(int op, Random random) {
+    switch (op) {
+      case 0: {
+        map.get(key(nextRecord(random)));
+        break;
+      }
+
+      case 1: {
+        map.put(key(nextRecord(random)), values[random.nextInt(VALUE_POOL)]);
+        break;
+      }
+
+      case 2: {
+        // The map has no key order, so a scan reads a run of consecutive record numbers in one call.
+        long first = nextRecord(random);
+        List<String> keys = new ArrayList<>(scanLength);
+
+        for (int i = 0; i < scanLength; i++) {
+          keys.add(key((first + i) % records));
+        }
+
+        map.getAll(keys);
+        break;
+      }
+
+      default: {
+        Map<String, String> batch = new HashMap<>();
+
+        for (int i = 0; i < batchSize; i++) {
+          batch.put(key(nextRecord(random)), values[random.nextInt(VALUE_POOL)]);
+        }
+
+        map.putAll(batch);
+        break;
+      }
+    }
+  }
+
+  private long nextRecord(Random random) {
+    return zipfian ? zipfianGenerator.next(random) : (long) (random.nextDouble() * records);
+  }
+
+  private String report(long elapsed, LatencyHistogram[] totals) {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"threads\":").append(threads);
+    json.append(",\"records\":").append(records);
+    json.append(",\"operations\":").append(operations);
+    json.append(",\"distribution\":\"").append(zipfian ? "zipfian" : "uniform").append('"');
+    json.append(",\"targetRate\":").append(format(target));
+    json.append(",\"coordinatedOmissionCorrected\":").append(target > 0);
+    json.append(",\"errors\":").append(errors.get());
+    json.append(",\"durationMs\":").append(TimeUnit.NANOSECONDS.toMillis(elapsed));
+    json.append(",\"throughput\":").append(format(operations * 1e9 / elapsed));
+    json.append(",\"latencyUs\":{");
+
+    boolean first = true;
+
+    for (int op = 0; op < OPERATIONS.length; op++) {
+      LatencyHistogram histogram = totals[op];
+
+      if (histogram.getCount() == 0) {
+        continue;
+      }
+
+      json.append(first ? "" : ",").append('"').append(OPERATIONS[op]).append("\":{");
+      json.append("\"count\":").append(histogram.getCount());
+      json.append(",\"mean\":").append(format(histogram.getMean() / 1e3));
+      json.append(",\"p50\":").append(format(histogram.getPercentile(0.50) / 1e3));
+      json.append(",\"p90\":").append(format(histogram.getPercentile(0.90) / 1e3));
+      json.append(",\"p99\":").append(format(histogram.getPercentile(0.99) / 1e3));
+      json.append(",\"p999\":").append(format(histogram.getPercentile(0.999) / 1e3));
+      json.append(",\"max\":").append(format(histogram.getMax() / 1e3));
+      json.append('}');
+      first = false;
+    }
+
+    return json.append("}}").toString();
+  }
+
+  private static String key(long record) {
+    return "user" + record;
+  }
+
+  private static String[] randomValues(int size) {
+    Random random = new Random(42);
+    String[] values = new String[VALUE_POOL];
+
+    for (int i = 0; i < VALUE_POOL; i++) {
+      char[] chars = new char[size];
+
+      for (int c = 0; c < size; c++) {
+        chars[c] = (char) ('a' + random.nextInt(26));
+      }
+
+      values[i] = new String(chars);
+    }
+
+    return values;
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.2f", value);
+  }
+}
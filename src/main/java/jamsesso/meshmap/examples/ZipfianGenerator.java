@@ -0,0 +1,70 @@
+package jamsesso.meshmap.examples;
+
+import java.util.Random;
+
+/**
+ * Draws item numbers in [0, items) where the popularity of the i-th most popular item is proportional to
+ * 1 / i^theta, using the method from Gray et al., "Quickly Generating Billion-Record Synthetic Databases". Popular
+ * items are scattered over the whole range with a hash so that they do not all land on the same node.
+ */
+public class ZipfianGenerator {
+  public static final double DEFAULT_THETA = 0.99;
+
+  private final long items;
+  private final double theta;
+  private final double alpha;
+  private final double zetan;
+  private final double eta;
+
+  public ZipfianGenerator(long items) {
+    this(items, DEFAULT_THETA);
+  }
+
+  public ZipfianGenerator(long items, double theta) {
+    this.items = items;
+    this.theta = theta;
+    this.alpha = 1.0 / (1.0 - theta);
+    this.zetan = zeta(items, theta);
+    this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+  }
+
+  public long next(Random random) {
+    double u = random.nextDouble();
+    double uz = u * zetan;
+    long rank;
+
+    if (uz < 1.0) {
+      rank = 0;
+    }
+    else if (uz < 1.0 + Math.pow(0.5, theta)) {
+      rank = 1;
+    }
+    else {
+      rank = Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    return Math.floorMod(fnv(rank), items);
+  }
+
+  private static double zeta(long n, double theta) {
+    double sum = 0;
+
+    for (long i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+
+    return sum;
+  }
+
+  private static long fnv(long value) {
+    long hash = 0xCBF29CE484222325L;
+
+    for (int i = 0; i < 8; i++) {
+      hash ^= value & 0xFF;
+      hash *= 0x100000001B3L;
+      value >>>= 8;
+    }
+
+    return hash;
+  }
+}
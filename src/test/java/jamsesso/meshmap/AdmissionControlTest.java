@@ -0,0 +1,123 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AdmissionControlTest {
+  private static final Message DONE = new Message("DONE");
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final Semaphore started = new Semaphore(0);
+
+  // Every request needs a thread of its own, because the handler blocks until the test releases it.
+  private final ExecutorService senders = Executors.newCachedThreadPool();
+
+  private final AdmissionControl admission = new AdmissionControl(MeshMapConfig.builder()
+    .maxConcurrentRequests(1)
+    .maxQueuedRequests(1)
+    .maxConcurrentScans(1)
+    .maxQueuedScans(0)
+    .busyRetryAfter(75)
+    .build());
+
+  private final MessageHandler handler = admission.admit(message -> {
+    started.release();
+
+    try {
+      release.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return DONE;
+  });
+
+  @After
+  public void stopSenders() {
+    release.countDown();
+    senders.shutdownNow();
+  }
+
+  @Test
+  public void aFullLaneIsAnsweredBusyWithARetryHint() throws Exception {
+    CompletableFuture<Message> running = send("GET");
+    started.acquire();
+    CompletableFuture<Message> queued = send("PUT");
+    Thread.sleep(100);
+
+    // One request runs and one waits, so the next is turned away without waiting.
+    Message busy = handler.handle(new Message("GET"));
+    assertEquals(Message.TYPE_BUSY, busy.getType());
+    assertEquals(75, busy.getPayloadAsInt());
+    assertEquals(1, admission.getRejectedCount());
+    assertFalse(queued.isDone());
+
+    release.countDown();
+    assertEquals(DONE, running.get(5, TimeUnit.SECONDS));
+    assertEquals(DONE, queued.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void scansHaveALaneOfTheirOwn() throws Exception {
+    send("GET");
+    started.acquire();
+    send("PUT");
+
+    // Point operations are full, but a scan still gets in.
+    CompletableFuture<Message> scan = send("KEY_SET");
+    started.acquire();
+
+    // Scans are full now, and none may wait.
+    assertEquals(Message.TYPE_BUSY, handler.handle(new Message("PUT_ALL")).getType());
+    assertEquals(1, admission.getRejectedCount());
+
+    release.countDown();
+    assertEquals(DONE, scan.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void controlMessagesAreAlwaysAdmitted() throws Exception {
+    send("GET");
+    started.acquire();
+    send("PUT");
+    send("KEY_SET");
+    started.acquire();
+    Thread.sleep(100);
+
+    for (String type : new String[] {Message.TYPE_HI, Message.TYPE_BYE, "MIGRATE", "MIGRATE_DATA", "LEAVE", "EVENTS"}) {
+      CompletableFuture<Message> control = send(type);
+      started.acquire();
+      assertFalse(control.isDone());
+    }
+
+    assertEquals(0, admission.getRejectedCount());
+  }
+
+  @Test
+  public void connectionsAreLimitedToWhatCanRunOrWaitPlusRoomForControlMessages() {
+    assertEquals(1 + 1 + 1 + 0 + 64, admission.getConnectionLimit());
+  }
+
+  @Test
+  public void rejectingCountsTheRequest() {
+    Message busy = admission.reject();
+    assertEquals(Message.TYPE_BUSY, busy.getType());
+    assertEquals(75, busy.getPayloadAsInt());
+    assertEquals(1, admission.getRejectedCount());
+  }
+
+  private CompletableFuture<Message> send(String type) {
+    return CompletableFuture.supplyAsync(() -> handler.handle(new Message(type)), senders);
+  }
+}
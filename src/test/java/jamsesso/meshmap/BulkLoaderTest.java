@@ -0,0 +1,119 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkLoaderTest {
+  private static final int RECORDS = 5_000;
+
+  private File directory;
+  private final List<LocalMeshMapCluster> nodes = new ArrayList<>();
+  private final Map<Node, MeshMap<String, Integer>> maps = new HashMap<>();
+
+  @Before
+  public void startCluster() throws Exception {
+    directory = Files.createTempDirectory("meshmap").toFile();
+
+    for (int i = 0; i < 3; i++) {
+      Node self = new Node(new InetSocketAddress("127.0.0.1", freePort()));
+      LocalMeshMapCluster node = new LocalMeshMapCluster(self, directory);
+      nodes.add(node);
+      maps.put(self, node.join());
+    }
+  }
+
+  @After
+  public void stopCluster() throws Exception {
+    for (LocalMeshMapCluster node : nodes) {
+      node.close();
+    }
+
+    File[] files = directory.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+
+    directory.delete();
+  }
+
+  @Test
+  public void everyRecordIsStoredOnItsOwner() throws IOException {
+    MeshMapImpl<String, Integer> map = (MeshMapImpl<String, Integer>) maps.values().iterator().next();
+    StringBuilder csv = new StringBuilder();
+
+    for (int i = 0; i < RECORDS; i++) {
+      csv.append("key-").append(i).append(',').append(i).append('\n');
+    }
+
+    AtomicLong loaded = new AtomicLong();
+    long read;
+
+    try (RecordReader<String, Integer> reader = RecordReader.csv(
+      new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), key -> key, Integer::valueOf)) {
+      read = BulkLoader.into(map)
+        .batchSize(100)
+        .onProgress((recordsRead, recordsLoaded) -> loaded.accumulateAndGet(recordsLoaded, Math::max))
+        .load(reader);
+    }
+
+    assertEquals(RECORDS, read);
+    assertEquals(RECORDS, loaded.get());
+
+    // Each node holds exactly the keys it owns.
+    Map<Node, Integer> owned = new HashMap<>();
+
+    for (int i = 0; i < RECORDS; i++) {
+      owned.merge(map.getNodeForKey("key-" + i), 1, Integer::sum);
+    }
+
+    for (Map.Entry<Node, MeshMap<String, Integer>> node : maps.entrySet()) {
+      assertEquals((int) owned.getOrDefault(node.getKey(), 0), node.getValue().getStats().getLocalSize());
+    }
+
+    assertTrue(owned.size() > 1);
+
+    for (int i = 0; i < RECORDS; i++) {
+      assertEquals(Integer.valueOf(i), map.get("key-" + i));
+    }
+  }
+
+  @Test
+  public void aKeyReadTwiceEndsUpWithItsLastValue() throws IOException {
+    MeshMap<String, Integer> map = maps.values().iterator().next();
+    String csv = "a,1\nb,2\na,3\nb,4\na,5\n";
+
+    try (RecordReader<String, Integer> reader = RecordReader.csv(
+      new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), key -> key, Integer::valueOf)) {
+      assertEquals(5, BulkLoader.into(map).batchSize(2).load(reader));
+    }
+
+    assertEquals(Integer.valueOf(5), map.get("a"));
+    assertEquals(Integer.valueOf(4), map.get("b"));
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvTest {
+  @Test
+  public void splitsAtCommas() {
+    assertEquals(Arrays.asList("key", "value"), Csv.split("key,value"));
+    assertEquals(Arrays.asList("a", "", "c"), Csv.split("a,,c"));
+    assertEquals(Arrays.asList("", ""), Csv.split(","));
+    assertEquals(Arrays.asList(""), Csv.split(""));
+  }
+
+  @Test
+  public void quotedFieldsMayHoldCommas() {
+    assertEquals(Arrays.asList("a,b", "c"), Csv.split("\"a,b\",c"));
+    assertEquals(Arrays.asList("key", "x, y and z"), Csv.split("key,\"x, y and z\""));
+  }
+
+  @Test
+  public void doubledQuotesStandForAQuote() {
+    assertEquals(Arrays.asList("say \"hi\"", "v"), Csv.split("\"say \"\"hi\"\"\",v"));
+    assertEquals(Arrays.asList("\"", ""), Csv.split("\"\"\"\","));
+
+    // Outside of quotes, an empty quoted section adds nothing.
+    assertEquals(Arrays.asList("ab"), Csv.split("a\"\"b"));
+  }
+
+  @Test
+  public void spacesAreKept() {
+    assertEquals(Arrays.asList(" a ", " b"), Csv.split(" a , b"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void anUnterminatedQuoteIsRejected() {
+    Csv.split("\"key,value");
+  }
+}
@@ -0,0 +1,158 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskTierTest {
+  private File directory;
+  private DiskTier disk;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("meshmap-spill").toFile();
+  }
+
+  @After
+  public void deleteDirectory() {
+    if (disk != null) {
+      disk.close();
+    }
+
+    File[] files = directory.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+
+    directory.delete();
+  }
+
+  @Test
+  public void deadSegmentsAreCompactedAway() throws Exception {
+    disk = new DiskTier(config(), new ReentrantLock());
+
+    for (int i = 0; i < 100; i++) {
+      disk.append("key-" + i, i);
+    }
+
+    int files = directory.listFiles().length;
+
+    for (int i = 0; i < 90; i++) {
+      assertEquals(i, disk.remove("key-" + i));
+    }
+
+    awaitFewerFiles(files);
+
+    for (int i = 90; i < 100; i++) {
+      assertEquals(i, disk.read("key-" + i));
+    }
+
+    assertNull(disk.read("key-0"));
+    assertEquals(10, disk.size());
+    assertEquals(0, disk.getFailedCompactions());
+  }
+
+  @Test
+  public void compactionWaitsForReaders() throws Exception {
+    ReentrantLock lock = new ReentrantLock();
+    disk = new DiskTier(config(), lock);
+
+    for (int i = 0; i < 15; i++) {
+      disk.append("key-" + i, i);
+    }
+
+    int files = directory.listFiles().length;
+
+    // A reader holds the store lock between looking a key up and reading its record.
+    lock.lock();
+
+    try {
+      for (int i = 0; i < 8; i++) {
+        disk.discard("key-" + i);
+      }
+
+      Thread.sleep(200);
+      assertEquals(files, directory.listFiles().length);
+      assertEquals(8, disk.read("key-8"));
+    }
+    finally {
+      lock.unlock();
+    }
+
+    awaitFewerFiles(files);
+
+    for (int i = 8; i < 15; i++) {
+      assertEquals(i, disk.read("key-" + i));
+    }
+  }
+
+  @Test
+  public void aSegmentThatCannotBeCompactedIsLeftAlone() throws Exception {
+    disk = new DiskTier(config(), new ReentrantLock());
+
+    for (int i = 0; i < 15; i++) {
+      disk.append("key-" + i, i);
+    }
+
+    // The sealed segment is the full one. Without its records, compaction cannot copy them out.
+    File sealed = Arrays.stream(directory.listFiles()).max(Comparator.comparingLong(File::length)).get();
+
+    try (RandomAccessFile file = new RandomAccessFile(sealed, "rw")) {
+      file.setLength(0);
+    }
+
+    for (int i = 0; i < 8; i++) {
+      disk.discard("key-" + i);
+    }
+
+    long deadline = System.currentTimeMillis() + 5_000;
+
+    while (disk.getFailedCompactions() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, disk.getFailedCompactions());
+
+    // The segment is not tried again, and the rest of the tier keeps working.
+    disk.discard("key-8");
+    disk.append("key-20", 20);
+    Thread.sleep(100);
+    assertEquals(1, disk.getFailedCompactions());
+    assertEquals(20, disk.read("key-20"));
+    assertEquals(14, disk.read("key-14"));
+    assertEquals(7, disk.size());
+  }
+
+  private MeshMapConfig config() {
+    return MeshMapConfig.builder()
+      .spillDirectory(directory)
+      .spillSegmentSize(1024)
+      .spillCompactionThreshold(0.5)
+      .build();
+  }
+
+  private void awaitFewerFiles(int files) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+
+    while (directory.listFiles().length >= files && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(directory.listFiles().length < files);
+  }
+}
@@ -0,0 +1,238 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventPublisherTest {
+  private final Node subscriber = new Node(new InetSocketAddress("127.0.0.1", 1));
+  private final Node other = new Node(new InetSocketAddress("127.0.0.1", 2));
+  private final List<EventPublisher.Notification[]> batches = Collections.synchronizedList(new ArrayList<>());
+  private EventPublisher publisher;
+
+  @After
+  public void closePublisher() {
+    if (publisher != null) {
+      publisher.close();
+    }
+  }
+
+  @Test
+  public void eventsThatQueueUpAreSentInOneBatch() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    publisher = new EventPublisher((node, batch) -> {
+      batches.add(batch);
+      sending.countDown();
+      await(release);
+    }, batch -> {});
+
+    publisher.subscribe(subscription(subscriber, key -> true));
+    put("key-0", 0);
+    sending.await();
+
+    // The first batch is still being sent, so the rest queue up behind it.
+    for (int i = 1; i <= 100; i++) {
+      put("key-" + i, i);
+    }
+
+    release.countDown();
+    awaitTrue(() -> count(batches) == 101);
+
+    assertEquals(2, batches.size());
+    assertEquals(1, batches.get(0).length);
+    assertEquals(100, batches.get(1).length);
+  }
+
+  @Test
+  public void eventsForAKeyArriveInOrder() throws Exception {
+    publisher = new EventPublisher((node, batch) -> batches.add(batch), batch -> {});
+    publisher.subscribe(subscription(subscriber, key -> true));
+
+    for (int i = 0; i < 2_000; i++) {
+      put("key", i);
+    }
+
+    awaitTrue(() -> count(batches) == 2_000);
+    int expected = 0;
+
+    for (EventPublisher.Notification[] batch : batches) {
+      for (EventPublisher.Notification notification : batch) {
+        assertEquals(expected++, notification.getEvent().getValue());
+      }
+    }
+  }
+
+  @Test
+  public void onlyMatchingKeysAreSentToEachSubscriber() throws Exception {
+    List<Node> targets = Collections.synchronizedList(new ArrayList<>());
+    publisher = new EventPublisher((node, batch) -> {
+      targets.add(node);
+      batches.add(batch);
+    }, batch -> {});
+
+    publisher.subscribe(subscription(subscriber, key -> key.toString().startsWith("a")));
+    publisher.subscribe(subscription(other, key -> key.toString().startsWith("b")));
+    put("a", 1);
+    put("b", 2);
+    put("c", 3);
+
+    awaitTrue(() -> count(batches) == 2);
+    assertTrue(targets.containsAll(Arrays.asList(subscriber, other)));
+  }
+
+  @Test
+  public void aFilterThatThrowsIsCountedAndSkipsTheEvent() throws Exception {
+    publisher = new EventPublisher((node, batch) -> batches.add(batch), batch -> {});
+    publisher.subscribe(subscription(subscriber, key -> {
+      throw new IllegalStateException("boom");
+    }));
+
+    put("key", 1);
+    assertEquals(1, publisher.getFilterFailures());
+
+    // Clearing is not about any key, so the filter is not asked.
+    publisher.onEvent(new EntryEvent<>(EntryEvent.Type.CLEAR, null, null, null));
+    awaitTrue(() -> count(batches) == 1);
+    assertEquals(EntryEvent.Type.CLEAR, batches.get(0)[0].getEvent().getType());
+    assertEquals(1, publisher.getFilterFailures());
+  }
+
+  @Test
+  public void aBatchThatFailsTwiceIsDroppedAndCounted() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    publisher = new EventPublisher((node, batch) -> {
+      attempts.incrementAndGet();
+      throw new MeshMapRuntimeException("unreachable");
+    }, batch -> {});
+
+    publisher.subscribe(subscription(subscriber, key -> true));
+    put("key", 1);
+
+    awaitTrue(() -> publisher.getDroppedEvents() == 1);
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  public void aFullQueueDropsEventsWithoutBlockingTheWriter() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    publisher = new EventPublisher((node, batch) -> {
+      batches.add(batch);
+      sending.countDown();
+      await(release);
+    }, batch -> {});
+
+    publisher.subscribe(subscription(subscriber, key -> true));
+    put("key", -1);
+    sending.await();
+
+    for (int i = 0; i < 10_005; i++) {
+      put("key", i);
+    }
+
+    assertEquals(5, publisher.getDroppedEvents());
+    release.countDown();
+    awaitTrue(() -> count(batches) == 10_001);
+  }
+
+  @Test
+  public void publishesOnlyWhileSomeoneIsSubscribed() throws Exception {
+    publisher = new EventPublisher((node, batch) -> batches.add(batch), batch -> {});
+    assertFalse(publisher.isActive());
+
+    EventPublisher.Subscription first = subscription(subscriber, key -> true);
+    EventPublisher.Subscription second = subscription(other, key -> true);
+    publisher.subscribe(first);
+    publisher.subscribe(second);
+    assertTrue(publisher.isActive());
+
+    publisher.unsubscribe(first.getId());
+    assertTrue(publisher.isActive());
+    assertEquals(1, publisher.getSubscriptions().length);
+
+    // The subscriber node left the cluster.
+    publisher.retainNodes(Collections.singletonList(subscriber));
+    assertFalse(publisher.isActive());
+    assertEquals(0, publisher.getSubscriptions().length);
+  }
+
+  @Test
+  public void receivedEventsReachTheListenersInOrderOnAnotherThread() throws Exception {
+    List<Object> values = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+    publisher = new EventPublisher((node, batch) -> {}, batch -> {
+      threads.add(Thread.currentThread());
+
+      for (EventPublisher.Notification notification : batch) {
+        values.add(notification.getEvent().getValue());
+      }
+    });
+
+    UUID id = UUID.randomUUID();
+
+    for (int i = 0; i < 100; i++) {
+      EntryEvent<Object, Object> event = new EntryEvent<>(EntryEvent.Type.PUT, "key", null, i);
+      publisher.receive(new EventPublisher.Notification[] {new EventPublisher.Notification(id, event)});
+    }
+
+    awaitTrue(() -> values.size() == 100);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, values.get(i));
+    }
+
+    assertNotEquals(Thread.currentThread(), threads.get(0));
+  }
+
+  private void put(Object key, Object value) {
+    publisher.onEvent(new EntryEvent<>(EntryEvent.Type.PUT, key, null, value));
+  }
+
+  private static EventPublisher.Subscription subscription(Node node, Predicate<Object> filter) {
+    return new EventPublisher.Subscription(UUID.randomUUID(), node, filter);
+  }
+
+  private static int count(List<EventPublisher.Notification[]> batches) {
+    synchronized (batches) {
+      return batches.stream().mapToInt(batch -> batch.length).sum();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(condition.getAsBoolean());
+  }
+}
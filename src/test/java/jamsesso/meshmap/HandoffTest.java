@@ -0,0 +1,96 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HandoffTest {
+  private static final Node TARGET = new Node(new InetSocketAddress("127.0.0.1", 1));
+
+  // Keys are their own hashes, so the tests can pick which side of the range they fall on.
+  private final Handoff handoff = new Handoff(key -> (Integer) key);
+
+  @Test
+  public void theRangeIsOnlyRedirectedOnceTheCopyFinished() {
+    handoff.start(TARGET, new HashRange(10, 20));
+    assertTrue(handoff.isActive());
+    assertNull(handoff.redirect(15));
+    assertNull(handoff.movedTo(15));
+
+    handoff.finish();
+    assertEquals(TARGET, handoff.redirect(15));
+    assertEquals(TARGET, handoff.movedTo(15));
+    assertNull(handoff.redirect(10));
+    assertNull(handoff.redirect(21));
+  }
+
+  @Test
+  public void changesToTheRangeAreTrackedWhileCopying() {
+    handoff.start(TARGET, new HashRange(10, 20));
+    handoff.onEvent(new EntryEvent<>(EntryEvent.Type.PUT, 15, null, "a"));
+    handoff.onEvent(new EntryEvent<>(EntryEvent.Type.REMOVE, 16, "b", null));
+    handoff.onEvent(new EntryEvent<>(EntryEvent.Type.PUT, 25, null, "c"));
+    handoff.onEvent(new EntryEvent<>(EntryEvent.Type.PUT, 15, "a", "d"));
+
+    assertEquals(2, handoff.getDirty().size());
+    assertTrue(handoff.getDirty().contains(15));
+    assertTrue(handoff.getDirty().contains(16));
+    assertFalse(handoff.wasCleared());
+
+    handoff.onEvent(new EntryEvent<>(EntryEvent.Type.CLEAR, null, null, null));
+    assertTrue(handoff.wasCleared());
+
+    // Nothing is tracked once the range was handed over, and the next handoff starts from scratch.
+    handoff.finish();
+    handoff.onEvent(new EntryEvent<>(EntryEvent.Type.PUT, 17, null, "e"));
+    assertTrue(handoff.getDirty().isEmpty());
+    assertFalse(handoff.wasCleared());
+  }
+
+  @Test
+  public void aSettledHandoffLeavesRoutingToTheView() {
+    handoff.start(TARGET, new HashRange(10, 20));
+    handoff.finish();
+    handoff.settle();
+
+    assertFalse(handoff.isActive());
+    assertNull(handoff.redirect(15));
+
+    // Writes routed here before the view caught up are still turned away.
+    assertEquals(TARGET, handoff.movedTo(15));
+    assertTrue(handoff.covers(15));
+
+    handoff.reset();
+    assertNull(handoff.movedTo(15));
+    assertFalse(handoff.covers(15));
+  }
+
+  @Test
+  public void aHandoffIsAbandonedWhenItsTargetNeverJoins() throws Exception {
+    handoff.start(TARGET, new HashRange(10, 20));
+    assertFalse(handoff.isAbandoned(0));
+
+    handoff.finish();
+    Thread.sleep(5);
+    assertFalse(handoff.isAbandoned(60_000));
+    assertTrue(handoff.isAbandoned(1));
+
+    handoff.settle();
+    assertFalse(handoff.isAbandoned(1));
+  }
+
+  @Test
+  public void theRangeCanWrapAroundTheRing() {
+    handoff.start(TARGET, new HashRange(Integer.MAX_VALUE - 5, Integer.MIN_VALUE + 5));
+    handoff.finish();
+
+    assertEquals(TARGET, handoff.redirect(Integer.MAX_VALUE));
+    assertEquals(TARGET, handoff.redirect(Integer.MIN_VALUE));
+    assertNull(handoff.redirect(0));
+  }
+}
@@ -0,0 +1,84 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HotKeyTrackerTest {
+  @Test
+  public void tracksNothingUnlessEnabled() {
+    HotKeyTracker tracker = new HotKeyTracker(MeshMapConfig.builder().hotKeyThreshold(10).build(), key -> {});
+
+    for (int i = 0; i < 100; i++) {
+      assertFalse(tracker.recordRead("key"));
+    }
+
+    assertTrue(tracker.getHotKeys().isEmpty());
+  }
+
+  @Test
+  public void aKeyReadAtLeastThresholdTimesIsHot() {
+    HotKeyTracker tracker = tracker(10, 60_000);
+
+    for (int i = 0; i < 9; i++) {
+      assertFalse(tracker.recordRead("key"));
+    }
+
+    assertTrue(tracker.recordRead("key"));
+    assertFalse(tracker.recordRead("other"));
+    assertEquals(Long.valueOf(10), tracker.getHotKeys().get("key"));
+    assertEquals(1, tracker.getHotKeys().size());
+  }
+
+  @Test
+  public void countsConcurrentReadsWithoutLocking() throws Exception {
+    HotKeyTracker tracker = tracker(40_000, 60_000);
+    List<Thread> threads = new ArrayList<>();
+
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          tracker.recordRead("key");
+        }
+      });
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // No window passed, so no increment was lost.
+    assertEquals(Long.valueOf(40_000), tracker.getHotKeys().get("key"));
+  }
+
+  @Test
+  public void hotKeysCoolDownAfterQuietWindows() throws Exception {
+    HotKeyTracker tracker = tracker(10, 20);
+
+    for (int i = 0; i < 10; i++) {
+      tracker.recordRead("key");
+    }
+
+    assertTrue(tracker.getHotKeys().containsKey("key"));
+    Thread.sleep(100);
+    assertTrue(tracker.getHotKeys().isEmpty());
+  }
+
+  private static HotKeyTracker tracker(long threshold, long window) {
+    MeshMapConfig config = MeshMapConfig.builder()
+      .hotKeyTracking(true)
+      .hotKeyThreshold(threshold)
+      .hotKeyWindow(window)
+      .build();
+
+    return new HotKeyTracker(config, key -> {});
+  }
+}
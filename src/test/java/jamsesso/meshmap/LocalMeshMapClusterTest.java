@@ -0,0 +1,124 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalMeshMapClusterTest {
+  private static final int KEYS = 2_000;
+
+  private File directory;
+  private final List<LocalMeshMapCluster> nodes = new ArrayList<>();
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("meshmap").toFile();
+  }
+
+  @After
+  public void closeNodes() throws Exception {
+    for (LocalMeshMapCluster node : nodes) {
+      node.close();
+    }
+
+    File[] files = directory.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+
+    directory.delete();
+  }
+
+  @Test
+  public void concurrentJoinsLoseNoKeys() throws Exception {
+    MeshMap<String, Integer> first = start().join();
+    fill(first);
+
+    List<CompletableFuture<MeshMap<String, Integer>>> joins = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++) {
+      LocalMeshMapCluster node = start();
+      joins.add(CompletableFuture.supplyAsync(() -> join(node)));
+    }
+
+    List<MeshMap<String, Integer>> maps = new ArrayList<>();
+    maps.add(first);
+
+    for (CompletableFuture<MeshMap<String, Integer>> join : joins) {
+      maps.add(join.get(30, TimeUnit.SECONDS));
+    }
+
+    assertEveryKeyStoredOnce(maps);
+  }
+
+  @Test
+  public void aJoinDuringALeaveLosesNoKeys() throws Exception {
+    MeshMap<String, Integer> first = start().join();
+    LocalMeshMapCluster leaving = start();
+    leaving.join();
+    fill(first);
+
+    LocalMeshMapCluster joining = start();
+    CompletableFuture<MeshMap<String, Integer>> join = CompletableFuture.supplyAsync(() -> join(joining));
+    nodes.remove(leaving);
+    leaving.close();
+
+    List<MeshMap<String, Integer>> maps = new ArrayList<>();
+    maps.add(first);
+    maps.add(join.get(30, TimeUnit.SECONDS));
+
+    assertEveryKeyStoredOnce(maps);
+  }
+
+  private LocalMeshMapCluster start() throws IOException {
+    LocalMeshMapCluster node = new LocalMeshMapCluster(new Node(new InetSocketAddress("127.0.0.1", freePort())), directory);
+    nodes.add(node);
+    return node;
+  }
+
+  private static MeshMap<String, Integer> join(LocalMeshMapCluster node) {
+    try {
+      return node.join();
+    }
+    catch (MeshMapException e) {
+      throw new MeshMapRuntimeException(e);
+    }
+  }
+
+  private static void fill(MeshMap<String, Integer> map) {
+    for (int i = 0; i < KEYS; i++) {
+      map.put("key-" + i, i);
+    }
+  }
+
+  private static void assertEveryKeyStoredOnce(List<MeshMap<String, Integer>> maps) {
+    for (MeshMap<String, Integer> map : maps) {
+      for (int i = 0; i < KEYS; i++) {
+        assertEquals(Integer.valueOf(i), map.get("key-" + i));
+      }
+    }
+
+    assertEquals(KEYS, maps.stream().mapToLong(map -> map.getStats().getLocalSize()).sum());
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
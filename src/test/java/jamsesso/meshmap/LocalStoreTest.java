@@ -0,0 +1,139 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocalStoreTest {
+  @Test
+  public void boundedStoreEvictsDownToCapacity() {
+    LocalStore store = new LocalStore(MeshMapConfig.builder().capacity(100).build());
+
+    for (int i = 0; i < 1_000; i++) {
+      store.put("key-" + i, i);
+    }
+
+    assertEquals(100, store.size());
+    assertEquals(900, store.getEvictionCount());
+  }
+
+  @Test
+  public void readsKeepPopularKeysAlive() {
+    LocalStore store = new LocalStore(MeshMapConfig.builder().capacity(1_000).build());
+
+    for (int i = 0; i < 1_000; i++) {
+      store.put("hot-" + i, i);
+    }
+
+    // Reads only reach the policy through the read buffer, so this also checks that they are not lost.
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 1_000; i++) {
+        store.get("hot-" + i);
+      }
+    }
+
+    for (int i = 0; i < 2_000; i++) {
+      store.put("scan-" + i, i);
+    }
+
+    long hot = store.keySet().stream().filter(key -> key.toString().startsWith("hot-")).count();
+    assertTrue("Only " + hot + " popular keys survived", hot >= 900);
+  }
+
+  @Test
+  public void readsDoNotWaitForTheStoreLock() throws Exception {
+    LocalStore store = new LocalStore(MeshMapConfig.builder().capacity(100).build());
+    store.put("key", "value");
+    store.getLock().lock();
+
+    try {
+      CompletableFuture<Object> read = CompletableFuture.supplyAsync(() -> {
+        Object value = null;
+
+        for (int i = 0; i < 10_000; i++) {
+          value = store.get("key");
+        }
+
+        return value;
+      });
+
+      assertNotNull(read.get(5, TimeUnit.SECONDS));
+    }
+    finally {
+      store.getLock().unlock();
+    }
+  }
+
+  @Test
+  public void spilledReadsStayCorrectWhileSegmentsAreCompacted() throws Exception {
+    File directory = Files.createTempDirectory("meshmap-spill").toFile();
+    LocalStore store = new LocalStore(MeshMapConfig.builder()
+      .capacity(10)
+      .spillDirectory(directory)
+      .spillSegmentSize(4 * 1024)
+      .spillCompactionThreshold(0.5)
+      .build());
+
+    try {
+      for (int i = 0; i < 500; i++) {
+        store.put("key-" + i, i);
+      }
+
+      // Rewriting spilled keys leaves dead records behind, so segments keep being compacted and deleted while the
+      // readers read from them.
+      AtomicBoolean stop = new AtomicBoolean();
+      CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+        for (int round = 0; round < 20; round++) {
+          for (int i = 0; i < 500; i++) {
+            store.put("key-" + i, i);
+          }
+        }
+
+        stop.set(true);
+      });
+
+      List<CompletableFuture<Void>> readers = new ArrayList<>();
+
+      for (int t = 0; t < 4; t++) {
+        readers.add(CompletableFuture.runAsync(() -> {
+          while (!stop.get()) {
+            int i = ThreadLocalRandom.current().nextInt(500);
+            assertEquals(i, store.peek("key-" + i));
+          }
+        }));
+      }
+
+      writer.get(60, TimeUnit.SECONDS);
+
+      for (CompletableFuture<Void> reader : readers) {
+        reader.get(5, TimeUnit.SECONDS);
+      }
+
+      assertEquals(500, store.size());
+    }
+    finally {
+      store.close();
+
+      File[] files = directory.listFiles();
+
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+
+      directory.delete();
+    }
+  }
+}
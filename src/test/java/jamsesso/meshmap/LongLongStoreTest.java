@@ -0,0 +1,139 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongLongStoreTest {
+  private static final long ABSENT = Long.MIN_VALUE;
+
+  @Test
+  public void theZeroKeyIsKeptOnTheSide() {
+    LongLongStore store = new LongLongStore();
+    assertFalse(store.containsKey(0));
+    assertEquals(ABSENT, store.put(0, 1, ABSENT));
+    assertEquals(1, store.put(0, 2, ABSENT));
+    assertTrue(store.containsKey(0));
+    assertEquals(2, store.get(0, ABSENT));
+    assertEquals(1, store.size());
+    assertArrayEquals(new long[] {0}, store.keys());
+
+    assertEquals(2, store.remove(0, ABSENT));
+    assertEquals(ABSENT, store.remove(0, ABSENT));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void collidingKeysProbePastEachOtherAndWrapAround() {
+    LongLongStore store = new LongLongStore();
+
+    // Keys whose ideal slot is the last slot of the initial table, so their probe sequences wrap around to slot 0.
+    long[] keys = keysWithIdealSlot(15, 16, 5);
+
+    for (long key : keys) {
+      store.put(key, key * 10, ABSENT);
+    }
+
+    for (long key : keys) {
+      assertEquals(key * 10, store.get(key, ABSENT));
+    }
+
+    // Removing the head of the chain must shift the rest back, or lookups would stop at the hole.
+    assertEquals(keys[0] * 10, store.remove(keys[0], ABSENT));
+    assertFalse(store.containsKey(keys[0]));
+
+    for (int i = 1; i < keys.length; i++) {
+      assertEquals(keys[i] * 10, store.get(keys[i], ABSENT));
+    }
+
+    assertEquals(keys[2] * 10, store.remove(keys[2], ABSENT));
+    assertEquals(keys[1] * 10, store.get(keys[1], ABSENT));
+    assertEquals(keys[3] * 10, store.get(keys[3], ABSENT));
+    assertEquals(keys[4] * 10, store.get(keys[4], ABSENT));
+    assertEquals(3, store.size());
+  }
+
+  @Test
+  public void aCopyDoesNotSeeLaterChanges() {
+    LongLongStore store = new LongLongStore();
+    store.put(0, 10, ABSENT);
+    store.put(1, 11, ABSENT);
+    store.put(2, 12, ABSENT);
+
+    LongLongStore copy = store.copy();
+    store.put(1, 21, ABSENT);
+    store.remove(2, ABSENT);
+    store.remove(0, ABSENT);
+    copy.put(3, 13, ABSENT);
+
+    assertEquals(4, copy.size());
+    assertEquals(10, copy.get(0, ABSENT));
+    assertEquals(11, copy.get(1, ABSENT));
+    assertEquals(12, copy.get(2, ABSENT));
+    assertEquals(1, store.size());
+    assertFalse(store.containsKey(3));
+  }
+
+  @Test
+  public void matchesAHashMapUnderRandomOperations() {
+    LongLongStore store = new LongLongStore();
+    Map<Long, Long> expected = new HashMap<>();
+    Random random = new Random(42);
+
+    for (int i = 0; i < 100_000; i++) {
+      // A small key space so that inserts, updates and removals all collide often, across several resizes.
+      long key = random.nextInt(2_000) - 1_000;
+      long value = random.nextLong();
+
+      if (random.nextInt(3) == 0) {
+        Long previous = expected.remove(key);
+        assertEquals(previous == null ? ABSENT : previous, store.remove(key, ABSENT));
+      }
+      else {
+        Long previous = expected.put(key, value);
+        assertEquals(previous == null ? ABSENT : previous, store.put(key, value, ABSENT));
+      }
+    }
+
+    assertEquals(expected.size(), store.size());
+    expected.forEach((key, value) -> assertEquals((long) value, store.get(key, ABSENT)));
+
+    long[] keys = store.keys();
+    Arrays.sort(keys);
+    assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray(), keys);
+
+    Map<Long, Long> visited = new HashMap<>();
+    store.forEach(visited::put);
+    assertEquals(expected, visited);
+
+    store.clear();
+    assertEquals(0, store.size());
+    assertEquals(0, store.keys().length);
+  }
+
+  /**
+   * Find non-zero keys that the store's hash sends to the given slot of a table of the given capacity.
+   */
+  private static long[] keysWithIdealSlot(int slot, int capacity, int count) {
+    long[] keys = new long[count];
+    int found = 0;
+
+    for (long key = 1; found < count; key++) {
+      long h = key * 0x9e3779b97f4a7c15L;
+
+      if (((int) (h ^ (h >>> 32)) & (capacity - 1)) == slot) {
+        keys[found++] = key;
+      }
+    }
+
+    return keys;
+  }
+}
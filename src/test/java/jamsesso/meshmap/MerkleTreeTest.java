@@ -0,0 +1,114 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MerkleTreeTest {
+  private static final ToIntFunction<Object> HASHER = key -> key.hashCode() & Integer.MAX_VALUE;
+
+  @Test
+  public void theSameEntriesInAnotherOrderDoNotDiffer() {
+    Map<Object, Object> entries = entries(1_000);
+    List<Object> keys = new ArrayList<>(entries.keySet());
+    MerkleTree tree = new MerkleTree(keys, HASHER, entries::get);
+
+    Collections.shuffle(keys, new Random(1));
+    MerkleTree shuffled = new MerkleTree(keys, HASHER, entries::get);
+
+    assertEquals(0, tree.differingGroups(shuffled.getGroups()).length);
+  }
+
+  @Test
+  public void aChangedValueIsFoundInItsBucket() {
+    Map<Object, Object> entries = entries(1_000);
+    MerkleTree tree = tree(entries);
+
+    entries.put("key-42", "changed");
+    MerkleTree changed = tree(entries);
+
+    assertDiffer(tree, changed, "key-42");
+  }
+
+  @Test
+  public void missingAndExtraKeysAreFound() {
+    Map<Object, Object> entries = entries(1_000);
+    MerkleTree tree = tree(entries);
+
+    Map<Object, Object> other = new HashMap<>(entries);
+    other.remove("key-7");
+    other.put("extra", "value");
+
+    MerkleTree otherTree = tree(other);
+    int[] groups = tree.differingGroups(otherTree.getGroups());
+    int[] buckets = tree.differingBuckets(groups, otherTree.getBuckets(groups));
+
+    Arrays.sort(buckets);
+    assertArrayEquals(sortedBuckets("key-7", "extra"), buckets);
+  }
+
+  @Test
+  public void keysThatAreGoneAreLeftOut() {
+    Map<Object, Object> entries = entries(100);
+    List<Object> keys = new ArrayList<>(entries.keySet());
+    keys.add("gone");
+
+    // The reader finds no value for a key removed after the keys were listed.
+    MerkleTree tree = new MerkleTree(keys, HASHER, entries::get);
+    assertEquals(0, tree.differingGroups(tree(entries).getGroups()).length);
+  }
+
+  @Test
+  public void bucketDigestsComeOneGroupAfterAnother() {
+    MerkleTree tree = tree(entries(1_000));
+    long[] all = tree.getBuckets(new int[] {0, 5});
+
+    assertEquals(2 * MerkleTree.GROUP_SIZE, all.length);
+    assertArrayEquals(Arrays.copyOfRange(all, MerkleTree.GROUP_SIZE, all.length), tree.getBuckets(new int[] {5}));
+  }
+
+  @Test
+  public void everyHashHasABucket() {
+    for (int hash : new int[] {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 123_456_789}) {
+      int bucket = MerkleTree.bucket(hash);
+      assertTrue(bucket >= 0 && bucket < MerkleTree.BUCKETS);
+    }
+  }
+
+  private static void assertDiffer(MerkleTree tree, MerkleTree other, Object key) {
+    int bucket = MerkleTree.bucket(HASHER.applyAsInt(key));
+    int[] groups = tree.differingGroups(other.getGroups());
+
+    assertArrayEquals(new int[] {bucket / MerkleTree.GROUP_SIZE}, groups);
+    assertArrayEquals(new int[] {bucket}, tree.differingBuckets(groups, other.getBuckets(groups)));
+  }
+
+  private static int[] sortedBuckets(Object... keys) {
+    return Arrays.stream(keys).mapToInt(key -> MerkleTree.bucket(HASHER.applyAsInt(key))).distinct().sorted().toArray();
+  }
+
+  private static MerkleTree tree(Map<Object, Object> entries) {
+    return new MerkleTree(new ArrayList<>(entries.keySet()), HASHER, entries::get);
+  }
+
+  private static Map<Object, Object> entries(int count) {
+    Map<Object, Object> entries = new HashMap<>();
+
+    for (int i = 0; i < count; i++) {
+      entries.put("key-" + i, i);
+    }
+
+    return entries;
+  }
+}
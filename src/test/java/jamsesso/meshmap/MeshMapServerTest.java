@@ -0,0 +1,75 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MeshMapServerTest {
+  private final Node self = new Node(new InetSocketAddress("127.0.0.1", 1));
+  private final Node dead = new Node(new InetSocketAddress("127.0.0.1", 2));
+  private final Node flaky = new Node(new InetSocketAddress("127.0.0.1", 3));
+
+  @Test
+  public void retriesToADeadNodeDoNotUseUpTheRetriesToOthers() throws Exception {
+    Map<Node, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+    // The dead node never answers, and the flaky one fails every other attempt.
+    Transport transport = new Transport() {
+      @Override
+      public void bind(Node self, MessageHandler handler) {
+      }
+
+      @Override
+      public Message send(Node node, Message message) throws IOException {
+        int attempt = attempts.computeIfAbsent(node, n -> new AtomicInteger()).incrementAndGet();
+
+        if (node.equals(dead) || attempt % 2 == 1) {
+          throw new ConnectException("Unreachable: " + node);
+        }
+
+        return Message.ACK;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    MeshMapConfig config = MeshMapConfig.builder()
+      .retryAttempts(3)
+      .retryBackoff(Backoff.NONE)
+      .retryBudgetRatio(0)
+      .retryBudgetMinPerSecond(2)
+      .traceSampleRate(0)
+      .build();
+
+    try (MeshMapServer server = new MeshMapServer(null, self, transport, new Tracer(config), config)) {
+      for (int i = 0; i < 2; i++) {
+        try {
+          server.message(dead, new Message("GET"));
+          fail();
+        }
+        catch (IOException e) {
+          // Expected.
+        }
+      }
+
+      // The dead node has spent its budget: its calls are no longer retried.
+      assertEquals(4, attempts.get(dead).get());
+
+      for (int i = 0; i < 2; i++) {
+        assertEquals(Message.ACK, server.message(flaky, new Message("GET")));
+      }
+
+      assertEquals(4, attempts.get(flaky).get());
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MessageTest {
+  @Test
+  public void decodesFramesWrittenByNodesThatPredateVersions() throws IOException {
+    byte[] payload = Message.toBytes("key");
+    Message message = Message.read(stream(originalFrame("GET", payload)));
+
+    assertEquals("GET", message.getType());
+    assertEquals(Message.DEFAULT_MAP, message.getMap());
+    assertEquals(Message.VERSION_1, message.getVersion());
+    assertEquals("key", message.getPayload(Object.class));
+  }
+
+  @Test
+  public void writesVersionOneFramesInTheOriginalFormat() throws IOException {
+    byte[] payload = Message.toBytes("key");
+
+    assertArrayEquals(originalFrame("GET", payload), encode(new Message("GET", payload), Message.VERSION_1));
+    assertArrayEquals(originalFrame("ACK", new byte[0]), encode(Message.ACK, Message.VERSION_1));
+    assertArrayEquals(originalFrame("CUSTOM", new byte[300]), encode(new Message("CUSTOM", new byte[300]), 1));
+  }
+
+  @Test
+  public void versionOneFramesCannotNameAMap() throws IOException {
+    try {
+      encode(new Message("GET", new byte[0]).withMap("users"), Message.VERSION_1);
+      fail();
+    }
+    catch (MeshMapRuntimeException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void versionTwoFramesRoundTrip() throws IOException {
+    // Payload sizes on both sides of each varint byte boundary.
+    for (int size : new int[] {0, 1, 127, 128, 16_383, 16_384, 2_097_152}) {
+      Message message = new Message("GET", new byte[size]).withMap("users");
+      Message decoded = Message.read(stream(encode(message, Message.VERSION_2)));
+
+      assertEquals(message, decoded);
+      assertEquals(Message.VERSION_2, decoded.getVersion());
+    }
+
+    // A type without an opcode is sent by name, and the default map is left out.
+    Message named = new Message("SOME_PLUGIN_TYPE", new byte[] {1, 2, 3});
+    assertEquals(named, Message.read(stream(encode(named, Message.VERSION_2))));
+  }
+
+  @Test
+  public void versionTwoFramesAreSmall() throws IOException {
+    // Marker, opcode, flags, size and a one byte payload.
+    assertEquals(5, encode(new Message("GET", new byte[1]), Message.VERSION_2).length);
+  }
+
+  @Test
+  public void tracesRoundTripInVersionTwoOnly() throws IOException {
+    Message traced = new Message("GET", new byte[0]).withTrace(42L, 5L, 300L, Long.MAX_VALUE);
+    Message decoded = Message.read(stream(encode(traced, Message.VERSION_2)));
+
+    assertEquals(42L, decoded.getTraceId());
+    assertArrayEquals(new long[] {5L, 300L, Long.MAX_VALUE}, decoded.getTimings());
+    assertEquals(0L, Message.read(stream(encode(traced, Message.VERSION_1))).getTraceId());
+  }
+
+  @Test
+  public void rejectsMalformedVersionTwoFrames() {
+    assertUnreadable(new byte[] {(byte) 0xB2, 17, (byte) 0x80, 0});
+    assertUnreadable(new byte[] {(byte) 0xB2, (byte) 250, 0, 0});
+    assertUnreadable(new byte[] {(byte) 0xB2, 17, 0, (byte) 0x80});
+  }
+
+  @Test
+  public void tellsTheVersionOfTheNextFrameWithoutConsumingIt() throws IOException {
+    InputStream stream = stream(encode(Message.ACK, Message.VERSION_2));
+    assertEquals(Message.VERSION_2, Message.peekVersion(stream));
+    assertEquals(Message.ACK, Message.read(stream));
+
+    stream = stream(originalFrame("ACK", new byte[0]));
+    assertEquals(Message.VERSION_1, Message.peekVersion(stream));
+    assertEquals(Message.ACK, Message.read(stream));
+  }
+
+  /**
+   * A frame as nodes wrote them before protocol versions existed.
+   */
+  private static byte[] originalFrame(String type, byte[] payload) {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+
+    return ByteBuffer.allocate(32 + 4 + payload.length)
+      .put(typeBytes)
+      .put(new byte[32 - typeBytes.length])
+      .putInt(payload.length)
+      .put(payload)
+      .array();
+  }
+
+  private static byte[] encode(Message message, int version) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    message.write(out, version);
+    return out.toByteArray();
+  }
+
+  private static InputStream stream(byte[] bytes) {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  private static void assertUnreadable(byte[] frame) {
+    try {
+      Message.read(stream(frame));
+      fail();
+    }
+    catch (IOException e) {
+      // Expected.
+    }
+  }
+}
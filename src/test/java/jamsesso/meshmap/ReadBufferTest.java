@@ -0,0 +1,83 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadBufferTest {
+  @Test
+  public void drainsInOrder() {
+    ReadBuffer buffer = new ReadBuffer();
+    List<Object> drained = new ArrayList<>();
+
+    assertTrue(buffer.offer("a"));
+    assertTrue(buffer.offer("b"));
+    assertEquals(2, buffer.size());
+
+    buffer.drain(drained::add);
+    assertEquals(2, drained.size());
+    assertEquals("a", drained.get(0));
+    assertEquals("b", drained.get(1));
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void dropsReadsWhenFull() {
+    ReadBuffer buffer = new ReadBuffer();
+
+    for (int i = 0; i < ReadBuffer.SIZE; i++) {
+      assertTrue(buffer.offer(i));
+    }
+
+    assertFalse(buffer.offer("dropped"));
+
+    AtomicInteger drained = new AtomicInteger();
+    buffer.drain(key -> drained.incrementAndGet());
+    assertEquals(ReadBuffer.SIZE, drained.get());
+
+    // Room again after a drain, and the slots wrap around.
+    assertTrue(buffer.offer("again"));
+    List<Object> rest = new ArrayList<>();
+    buffer.drain(rest::add);
+    assertEquals(1, rest.size());
+    assertEquals("again", rest.get(0));
+  }
+
+  @Test
+  public void neverDrainsMoreThanWasOffered() throws Exception {
+    ReadBuffer buffer = new ReadBuffer();
+    AtomicInteger offered = new AtomicInteger();
+    AtomicInteger drained = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          if (buffer.offer(i)) {
+            offered.incrementAndGet();
+          }
+        }
+      });
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    while (threads.stream().anyMatch(Thread::isAlive)) {
+      buffer.drain(key -> drained.incrementAndGet());
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    buffer.drain(key -> drained.incrementAndGet());
+    assertEquals(offered.get(), drained.get());
+  }
+}
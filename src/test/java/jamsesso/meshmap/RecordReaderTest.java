@@ -0,0 +1,81 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RecordReaderTest {
+  @Test
+  public void readsCsvRecordsAndSkipsBlankLines() throws IOException {
+    String csv = "a,1\n\n\"b,c\",2\r\n  \n\"say \"\"hi\"\"\",3\n";
+
+    try (RecordReader<String, Integer> reader = RecordReader.csv(input(csv), key -> key, Integer::valueOf)) {
+      assertEquals(Arrays.asList(entry("a", 1), entry("b,c", 2), entry("say \"hi\"", 3)), readAll(reader));
+      assertNull(reader.next());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void aCsvLineWithoutAValueIsRejected() throws IOException {
+    try (RecordReader<String, String> reader = RecordReader.csv(input("a,1\nb\n"), key -> key, value -> value)) {
+      readAll(reader);
+    }
+  }
+
+  @Test
+  public void binaryRecordsReadBackAsTheyWereWritten() throws IOException {
+    List<Map.Entry<Object, Object>> records = Arrays.asList(
+      entry("key", "value"),
+      entry(42L, 0),
+      entry("empty", ""),
+      entry(Arrays.asList(1, 2), "a list key"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    try (RecordWriter<Object, Object> writer = RecordWriter.binary(out)) {
+      for (Map.Entry<Object, Object> record : records) {
+        writer.write(record.getKey(), record.getValue());
+      }
+    }
+
+    try (RecordReader<Object, Object> reader = RecordReader.binary(new ByteArrayInputStream(out.toByteArray()))) {
+      assertEquals(records, readAll(reader));
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void anEmptyBinaryInputHasNoRecords() throws IOException {
+    try (RecordReader<Object, Object> reader = RecordReader.binary(new ByteArrayInputStream(new byte[0]))) {
+      assertNull(reader.next());
+    }
+  }
+
+  private static <K, V> List<Map.Entry<K, V>> readAll(RecordReader<K, V> reader) throws IOException {
+    List<Map.Entry<K, V>> records = new ArrayList<>();
+
+    for (Map.Entry<K, V> record = reader.next(); record != null; record = reader.next()) {
+      records.add(record);
+    }
+
+    return records;
+  }
+
+  private static <K, V> Map.Entry<K, V> entry(K key, V value) {
+    return new SimpleImmutableEntry<>(key, value);
+  }
+
+  private static ByteArrayInputStream input(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
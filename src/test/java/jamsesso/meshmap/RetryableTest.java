@@ -0,0 +1,60 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryableTest {
+  @Test
+  public void recordsTheWaitBetweenAttemptsAsItsOwnStage() throws Exception {
+    TraceSpan span = new TraceSpan(1);
+    AtomicInteger attempts = new AtomicInteger();
+
+    String result = Retryable.retry(() -> {
+      span.stage("negotiate");
+
+      if (attempts.incrementAndGet() < 3) {
+        span.stage("failed");
+        throw new IOException("Unreachable");
+      }
+
+      return "done";
+    })
+      .on(IOException.class)
+      .backoff(Backoff.fixed(50))
+      .traced(span)
+      .times(3);
+
+    assertEquals("done", result);
+    assertTrue(span.get("backoff") >= TimeUnit.MILLISECONDS.toNanos(100));
+    assertTrue(span.get("negotiate") < TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  @Test
+  public void waitsAtLeastAsLongAsABusyNodeAsked() throws Exception {
+    Node node = new Node(new InetSocketAddress("127.0.0.1", 1));
+    AtomicInteger attempts = new AtomicInteger();
+    long start = System.nanoTime();
+
+    String result = Retryable.retry(() -> {
+      if (attempts.incrementAndGet() < 2) {
+        throw new ServerBusyException(node, 100);
+      }
+
+      return "done";
+    })
+      .on(IOException.class)
+      .backoff(Backoff.fixed(1))
+      .times(3);
+
+    assertEquals("done", result);
+    assertEquals(2, attempts.get());
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+  }
+}
@@ -0,0 +1,158 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+  private final SingleFlight<String> flights = new SingleFlight<>();
+  private final AtomicInteger calls = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  // Every caller needs a thread of its own, because the callers block until the test releases them.
+  private final ExecutorService callers = Executors.newCachedThreadPool();
+
+  @After
+  public void stopCallers() {
+    release.countDown();
+    callers.shutdownNow();
+  }
+
+  @Test
+  public void concurrentCallsForAKeyShareOneExecution() throws Exception {
+    CompletableFuture<String> leader = start("key", this::blockingCall);
+    awaitCalls(1);
+
+    List<CompletableFuture<String>> followers = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      followers.add(start("key", this::blockingCall));
+    }
+
+    awaitMerged(5);
+    release.countDown();
+
+    assertEquals("value-1", leader.get(5, TimeUnit.SECONDS));
+
+    for (CompletableFuture<String> follower : followers) {
+      assertEquals("value-1", follower.get(5, TimeUnit.SECONDS));
+    }
+
+    assertEquals(1, calls.get());
+
+    // The call is over, so the next one runs again.
+    assertEquals("value-2", flights.call("key", this::blockingCall));
+  }
+
+  @Test
+  public void callsForOtherKeysDoNotShare() throws Exception {
+    CompletableFuture<String> first = start("a", this::blockingCall);
+    CompletableFuture<String> second = start("b", this::blockingCall);
+    awaitCalls(2);
+    release.countDown();
+
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    assertEquals(0, flights.getMergedCount());
+  }
+
+  @Test
+  public void aCallAfterAFenceDoesNotJoinOneThatStartedBefore() throws Exception {
+    CompletableFuture<String> before = start("key", this::blockingCall);
+    awaitCalls(1);
+
+    flights.fence();
+    CompletableFuture<String> after = start("key", this::blockingCall);
+    awaitCalls(2);
+
+    // A caller arriving now joins the call that started after the fence.
+    CompletableFuture<String> joined = start("key", this::blockingCall);
+    awaitMerged(1);
+    release.countDown();
+
+    assertEquals("value-1", before.get(5, TimeUnit.SECONDS));
+    assertEquals("value-2", after.get(5, TimeUnit.SECONDS));
+    assertEquals("value-2", joined.get(5, TimeUnit.SECONDS));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void callersThatJoinedSeeTheSameException() throws Exception {
+    IllegalStateException failure = new IllegalStateException("boom");
+    CompletableFuture<String> leader = start("key", () -> {
+      blockingCall();
+      throw failure;
+    });
+
+    awaitCalls(1);
+    CompletableFuture<String> follower = start("key", this::blockingCall);
+    awaitMerged(1);
+    release.countDown();
+
+    assertSame(failure, causeOf(leader));
+    assertSame(failure, causeOf(follower));
+    assertEquals(1, calls.get());
+  }
+
+  private CompletableFuture<String> start(String key, Supplier<String> call) {
+    return CompletableFuture.supplyAsync(() -> flights.call(key, call), callers);
+  }
+
+  private String blockingCall() {
+    int call = calls.incrementAndGet();
+
+    try {
+      release.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return "value-" + call;
+  }
+
+  private void awaitCalls(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+
+    while (calls.get() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+
+    assertEquals(count, calls.get());
+  }
+
+  private void awaitMerged(long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+
+    while (flights.getMergedCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+
+    assertEquals(count, flights.getMergedCount());
+  }
+
+  private static Throwable causeOf(CompletableFuture<?> future) throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail();
+      return null;
+    }
+    catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+}
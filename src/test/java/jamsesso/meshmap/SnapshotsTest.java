@@ -0,0 +1,210 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotsTest {
+  private static final int ENTRIES = 3_000;
+
+  private final List<LocalMeshMapCluster> nodes = new ArrayList<>();
+  private final List<File> directories = new ArrayList<>();
+
+  @After
+  public void cleanUp() throws Exception {
+    for (LocalMeshMapCluster node : nodes) {
+      node.close();
+    }
+
+    for (File directory : directories) {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void aSnapshotDescribesThePartitionEachNodeWrote() throws Exception {
+    Map<String, MeshMap<String, Integer>> maps = startCluster(3);
+    MeshMap<String, Integer> map = maps.values().iterator().next();
+    fill(map);
+
+    File snapshot = directory();
+    long before = System.currentTimeMillis();
+    SnapshotManifest manifest = map.snapshot(snapshot);
+
+    assertEquals(Message.DEFAULT_MAP, manifest.getMap());
+    assertTrue(manifest.getCreated() >= before && manifest.getCreated() <= System.currentTimeMillis());
+    assertEquals(3, manifest.getPartitions().size());
+    assertEquals(ENTRIES, manifest.getEntries());
+
+    // Every node wrote the entries it owns to a file of its own, and the manifest on disk says the same.
+    Map<String, Long> written = new HashMap<>();
+    long bytes = 0;
+
+    for (SnapshotManifest.Partition partition : manifest.getPartitions()) {
+      File file = new File(snapshot, partition.getFile());
+      assertTrue(file.isFile());
+      assertEquals(file.length(), partition.getBytes());
+      written.put(partition.getNode(), partition.getEntries());
+      bytes += file.length();
+    }
+
+    assertEquals(maps.keySet(), written.keySet());
+
+    for (Map.Entry<String, MeshMap<String, Integer>> node : maps.entrySet()) {
+      assertEquals(node.getValue().getStats().getLocalSize(), (long) written.get(node.getKey()));
+    }
+
+    assertEquals(bytes, manifest.getBytes());
+    assertEquals(new HashSet<>(Arrays.asList("partition-0.gz", "partition-1.gz", "partition-2.gz",
+      SnapshotManifest.FILE_NAME)), new HashSet<>(Arrays.asList(snapshot.list())));
+    assertEquals(manifest, SnapshotManifest.read(snapshot));
+  }
+
+  @Test
+  public void aClearedClusterGetsItsEntriesBack() throws Exception {
+    MeshMap<String, Integer> map = startCluster(3).values().iterator().next();
+    fill(map);
+
+    File snapshot = directory();
+    map.snapshot(snapshot);
+    map.clear();
+    assertEquals(0, map.size());
+
+    assertEquals(ENTRIES, map.restore(snapshot));
+    assertEntries(map);
+  }
+
+  @Test
+  public void aSnapshotRestoresIntoAClusterOfAnotherSize() throws Exception {
+    MeshMap<String, Integer> source = startCluster(3).values().iterator().next();
+    fill(source);
+
+    File snapshot = directory();
+    source.snapshot(snapshot);
+
+    // None of the nodes that wrote the partitions are part of this cluster, so the partitions are shared out.
+    Map<String, MeshMap<String, Integer>> maps = startCluster(2);
+    MeshMapImpl<String, Integer> target = (MeshMapImpl<String, Integer>) maps.values().iterator().next();
+    assertEquals(ENTRIES, target.restore(snapshot));
+    assertEntries(target);
+
+    // Each entry went to its owner in this cluster, not to whichever node loaded its partition.
+    Map<String, Integer> owned = new HashMap<>();
+
+    for (int i = 0; i < ENTRIES; i++) {
+      InetSocketAddress owner = target.getNodeForKey("key-" + i).getAddress();
+      owned.merge(owner.getHostString() + ":" + owner.getPort(), 1, Integer::sum);
+    }
+
+    for (Map.Entry<String, MeshMap<String, Integer>> node : maps.entrySet()) {
+      assertEquals((int) owned.getOrDefault(node.getKey(), 0), node.getValue().getStats().getLocalSize());
+    }
+  }
+
+  @Test
+  public void aManifestReadsBackAsItWasWritten() throws Exception {
+    File snapshot = directory();
+    SnapshotManifest manifest = new SnapshotManifest("users", 1234L, Arrays.asList(
+      new SnapshotManifest.Partition("partition-0.gz", "127.0.0.1:5000", 10, 512),
+      new SnapshotManifest.Partition("partition-1.gz", "127.0.0.1:5001", 0, 20)));
+
+    manifest.write(snapshot);
+    SnapshotManifest read = SnapshotManifest.read(snapshot);
+
+    assertEquals(manifest, read);
+    assertEquals(10, read.getEntries());
+    assertEquals(532, read.getBytes());
+  }
+
+  @Test
+  public void aManifestOfAnUnknownVersionIsRefused() throws Exception {
+    File snapshot = directory();
+    Properties properties = new Properties();
+    properties.setProperty("version", "2");
+    properties.setProperty("map", "users");
+    properties.setProperty("created", "1234");
+    properties.setProperty("partitions", "0");
+
+    try (OutputStream out = new FileOutputStream(new File(snapshot, SnapshotManifest.FILE_NAME))) {
+      properties.store(out, null);
+    }
+
+    try {
+      SnapshotManifest.read(snapshot);
+      fail();
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage().contains("2"));
+    }
+  }
+
+  private Map<String, MeshMap<String, Integer>> startCluster(int size) throws Exception {
+    File directory = directory();
+    Map<String, MeshMap<String, Integer>> maps = new HashMap<>();
+
+    for (int i = 0; i < size; i++) {
+      int port = freePort();
+      LocalMeshMapCluster node = new LocalMeshMapCluster(new Node(new InetSocketAddress("127.0.0.1", port)), directory);
+      nodes.add(node);
+      maps.put("127.0.0.1:" + port, node.join());
+    }
+
+    return maps;
+  }
+
+  private File directory() throws IOException {
+    File directory = Files.createTempDirectory("meshmap").toFile();
+    directories.add(directory);
+    return directory;
+  }
+
+  private static void fill(MeshMap<String, Integer> map) {
+    for (int i = 0; i < ENTRIES; i++) {
+      map.put("key-" + i, i);
+    }
+  }
+
+  private static void assertEntries(MeshMap<String, Integer> map) {
+    assertEquals(ENTRIES, map.size());
+
+    for (int i = 0; i < ENTRIES; i++) {
+      assertEquals(Integer.valueOf(i), map.get("key-" + i));
+    }
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+
+    file.delete();
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
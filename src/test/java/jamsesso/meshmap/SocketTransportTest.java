@@ -0,0 +1,171 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SocketTransportTest {
+  @Test
+  public void speaksTheOriginalFormatToNodesThatPredateVersions() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+         SocketTransport transport = new SocketTransport()) {
+      Thread thread = new Thread(() -> serveOriginalProtocol(server, received));
+      thread.setDaemon(true);
+      thread.start();
+
+      Node node = new Node(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+
+      assertEquals(Message.VERSION_1, transport.getVersion(node));
+      assertEquals(Message.ACK, transport.send(node, new Message("SIZE")));
+      assertEquals(Message.ACK, transport.send(node, new Message("PUT", new byte[200])));
+
+      // The version request is an unknown message to such a node, but one it can still read.
+      assertEquals("VERSION:1", received.get(0));
+      assertEquals("SIZE:0", received.get(1));
+      assertEquals("PUT:200", received.get(2));
+    }
+  }
+
+  @Test
+  public void negotiatesTheCurrentVersionWithCurrentNodes() throws Exception {
+    try (ServerSocket probe = new ServerSocket(0)) {
+      probe.close();
+      Node node = new Node(new InetSocketAddress("127.0.0.1", probe.getLocalPort()));
+
+      try (SocketTransport server = new SocketTransport(); SocketTransport client = new SocketTransport()) {
+        server.bind(node, message -> new Message("ECHO", message.getPayload()).withMap(message.getMap()));
+
+        assertEquals(Message.CURRENT_VERSION, client.getVersion(node));
+        assertEquals(new Message("ECHO", new byte[] {7}).withMap("users"),
+          client.send(node, new Message("GET", new byte[] {7}).withMap("users")));
+      }
+    }
+  }
+
+  @Test
+  public void connectionsBeyondTheLimitAreAnsweredBusyUnread() throws Exception {
+    try (ServerSocket probe = new ServerSocket(0)) {
+      probe.close();
+      Node node = new Node(new InetSocketAddress("127.0.0.1", probe.getLocalPort()));
+      Message busy = new Message(Message.TYPE_BUSY, ByteBuffer.allocate(4).putInt(25).array());
+      AtomicInteger handled = new AtomicInteger();
+      CountDownLatch release = new CountDownLatch(1);
+
+      try (SocketTransport server = new SocketTransport(); SocketTransport client = new SocketTransport()) {
+        server.bind(node, message -> {
+          handled.incrementAndGet();
+          await(release);
+          return Message.ACK;
+        }, 1, () -> busy);
+
+        assertEquals(Message.CURRENT_VERSION, client.getVersion(node));
+
+        // The only connection the node serves is taken until the handler is released.
+        CompletableFuture<Message> first = CompletableFuture.supplyAsync(() -> {
+          try {
+            return client.send(node, new Message("GET"));
+          }
+          catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        });
+
+        while (handled.get() == 0) {
+          Thread.sleep(1);
+        }
+
+        for (int i = 0; i < 20; i++) {
+          assertEquals(busy, client.send(node, new Message("GET")));
+        }
+
+        release.countDown();
+        assertEquals(Message.ACK, first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, handled.get());
+
+        // Once the connection is free again, messages are handled.
+        assertEquals(Message.ACK, client.send(node, new Message("GET")));
+      }
+    }
+  }
+
+  @Test
+  public void aNodeTooBusyToAnswerItsVersionIsAskedAgainLater() throws Exception {
+    try (ServerSocket probe = new ServerSocket(0)) {
+      probe.close();
+      Node node = new Node(new InetSocketAddress("127.0.0.1", probe.getLocalPort()));
+      Message busy = new Message(Message.TYPE_BUSY, ByteBuffer.allocate(4).putInt(25).array());
+
+      try (SocketTransport server = new SocketTransport(); SocketTransport client = new SocketTransport()) {
+        server.bind(node, message -> Message.ACK, 0, () -> busy);
+
+        try {
+          client.getVersion(node);
+          fail();
+        }
+        catch (ServerBusyException e) {
+          assertEquals(25, e.getRetryAfter());
+        }
+      }
+
+      try (SocketTransport server = new SocketTransport(); SocketTransport client = new SocketTransport()) {
+        server.bind(node, message -> Message.ACK);
+        assertEquals(Message.CURRENT_VERSION, client.getVersion(node));
+      }
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Read each request in the original frame format, note its type and size, and acknowledge it, the way nodes did
+   * for any message they did not know before protocol versions existed.
+   */
+  private static void serveOriginalProtocol(ServerSocket server, List<String> received) {
+    while (true) {
+      try (Socket socket = server.accept()) {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] type = new byte[32];
+        in.readFully(type);
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        received.add(new String(type).trim() + ":" + payload.length);
+
+        OutputStream out = socket.getOutputStream();
+        out.write(ByteBuffer.allocate(36).put("ACK".getBytes()).put(new byte[29]).putInt(0).array());
+        out.flush();
+      }
+      catch (SocketException e) {
+        return;
+      }
+      catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ThreadsTest {
+  @Test
+  public void fanOutKeepsTheOrderOfTheItems() {
+    List<Integer> items = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+    assertEquals(items.stream().map(i -> i * 2).collect(Collectors.toList()), Threads.fanOut(items, i -> i * 2));
+    assertEquals(Collections.singletonList("a!"), Threads.fanOut(Collections.singletonList("a"), s -> s + "!"));
+    assertTrue(Threads.fanOut(Collections.<String>emptyList(), s -> s).isEmpty());
+  }
+
+  @Test
+  public void fanOutRethrowsTheExceptionOfATask() {
+    try {
+      Threads.fanOut(Arrays.asList(1, 2, 3), i -> {
+        if (i == 2) {
+          throw new IllegalStateException("boom");
+        }
+
+        return i;
+      });
+
+      fail();
+    }
+    catch (IllegalStateException e) {
+      assertEquals("boom", e.getMessage());
+    }
+  }
+
+  @Test
+  public void perTaskRunsTasksOnDaemonThreads() throws Exception {
+    ExecutorService executor = Threads.perTask("meshmap-test");
+
+    try {
+      Future<Boolean> daemon = executor.submit(() -> Thread.currentThread().isDaemon());
+      assertTrue(daemon.get(5, TimeUnit.SECONDS));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+}
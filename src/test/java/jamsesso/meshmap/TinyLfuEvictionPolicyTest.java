@@ -0,0 +1,101 @@
+package jamsesso.meshmap;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuEvictionPolicyTest {
+  @Test
+  public void popularKeysSurviveAScanOfOneHitWonders() {
+    assertTrue(survivorsOfScan(new TinyLfuEvictionPolicy(1_000)) >= 900);
+    assertEquals(0, survivorsOfScan(new LruEvictionPolicy(1_000)));
+  }
+
+  @Test
+  public void aCandidateMorePopularThanTheVictimIsAdmitted() {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(100);
+    Set<Object> stored = new HashSet<>();
+
+    for (int i = 0; i < 100; i++) {
+      write(policy, stored, "old-" + i);
+    }
+
+    // Seen often before it is ever written, so it beats the least popular key in the main region.
+    for (int i = 0; i < 10; i++) {
+      policy.recordAccess("new");
+    }
+
+    write(policy, stored, "new");
+    write(policy, stored, "other");
+
+    assertTrue(stored.contains("new"));
+    assertEquals(100, stored.size());
+  }
+
+  @Test
+  public void weightsAreTrackedAcrossUpdatesAndRemovals() {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(100);
+    policy.recordWrite("a", 10);
+    policy.recordWrite("b", 20);
+    policy.recordWrite("a", 5);
+    assertEquals(25, policy.weightedSize());
+
+    policy.recordRemoval("b");
+    assertEquals(5, policy.weightedSize());
+
+    assertEquals("a", policy.evict());
+    assertNull(policy.evict());
+    assertEquals(0, policy.weightedSize());
+  }
+
+  @Test
+  public void accessesToUnknownKeysAreIgnored() {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(10);
+    policy.recordAccess("missing");
+    assertEquals(0, policy.weightedSize());
+    assertNull(policy.evict());
+  }
+
+  /**
+   * Fill the policy with keys that are read often, then write twice as many keys that are never read again, and count
+   * how many of the popular keys are left.
+   */
+  private static long survivorsOfScan(EvictionPolicy policy) {
+    Set<Object> stored = new HashSet<>();
+
+    for (int i = 0; i < 1_000; i++) {
+      write(policy, stored, "hot-" + i, 1_000);
+    }
+
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 1_000; i++) {
+        policy.recordAccess("hot-" + i);
+      }
+    }
+
+    for (int i = 0; i < 2_000; i++) {
+      write(policy, stored, "scan-" + i, 1_000);
+    }
+
+    assertEquals(1_000, policy.weightedSize());
+    return stored.stream().filter(key -> key.toString().startsWith("hot-")).count();
+  }
+
+  private static void write(EvictionPolicy policy, Set<Object> stored, Object key) {
+    write(policy, stored, key, 100);
+  }
+
+  private static void write(EvictionPolicy policy, Set<Object> stored, Object key, long capacity) {
+    policy.recordWrite(key, 1);
+    stored.add(key);
+
+    while (policy.weightedSize() > capacity) {
+      assertTrue(stored.remove(policy.evict()));
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package jamsesso.meshmap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindBufferTest {
+  private final Node node = new Node(new InetSocketAddress("127.0.0.1", 1));
+  private final List<Map<Object, Object>> batches = Collections.synchronizedList(new ArrayList<>());
+  private final List<LocalMeshMapCluster> nodes = new ArrayList<>();
+  private WriteBehindBuffer buffer;
+  private File directory;
+
+  @After
+  public void close() throws Exception {
+    if (buffer != null) {
+      buffer.close();
+    }
+
+    for (LocalMeshMapCluster node : nodes) {
+      node.close();
+    }
+
+    if (directory != null) {
+      File[] files = directory.listFiles();
+
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+
+      directory.delete();
+    }
+  }
+
+  @Test
+  public void repeatedWritesToAKeyAreSentOnce() {
+    buffer = new WriteBehindBuffer(config(100, 1_000, 60_000), (node, batch) -> batches.add(batch));
+
+    assertNull(buffer.put(node, "key", 1));
+    assertEquals(1, buffer.put(node, "key", 2));
+    buffer.put(node, "other", 3);
+    buffer.flush();
+
+    assertEquals(1, batches.size());
+    assertEquals(map("key", 2, "other", 3), batches.get(0));
+
+    // Nothing is left to send.
+    buffer.flush();
+    assertEquals(1, batches.size());
+  }
+
+  @Test
+  public void aFullBatchIsSentWithoutWaitingForTheInterval() throws Exception {
+    buffer = new WriteBehindBuffer(config(10, 1_000, 60_000), (node, batch) -> batches.add(batch));
+
+    for (int i = 0; i < 9; i++) {
+      buffer.put(node, "key-" + i, i);
+    }
+
+    Thread.sleep(100);
+    assertTrue(batches.isEmpty());
+
+    buffer.put(node, "key-9", 9);
+    awaitTrue(() -> batches.size() == 1);
+    assertEquals(10, batches.get(0).size());
+  }
+
+  @Test
+  public void writesAreSentOnceTheIntervalPasses() throws Exception {
+    buffer = new WriteBehindBuffer(config(100, 1_000, 50), (node, batch) -> batches.add(batch));
+    buffer.put(node, "key", 1);
+
+    awaitTrue(() -> batches.size() == 1);
+    assertEquals(map("key", 1), batches.get(0));
+  }
+
+  @Test
+  public void pendingWritesAreReadUntilTheOwnerHasThem() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    buffer = new WriteBehindBuffer(config(100, 1_000, 60_000), (node, batch) -> {
+      batches.add(batch);
+      sending.countDown();
+      await(release);
+    });
+
+    buffer.put(node, "key", 1);
+    buffer.put(node, "other", 1);
+    assertEquals(1, buffer.get(node, "key"));
+
+    CompletableFuture<Void> flush = CompletableFuture.runAsync(() -> buffer.flush(node));
+    sending.await();
+
+    // The batch is on its way, but not acknowledged yet. A key written meanwhile keeps its newer value.
+    assertEquals(1, buffer.get(node, "key"));
+    buffer.put(node, "other", 2);
+
+    release.countDown();
+    flush.get(5, TimeUnit.SECONDS);
+
+    assertNull(buffer.get(node, "key"));
+    assertEquals(2, buffer.get(node, "other"));
+  }
+
+  @Test
+  public void writersWaitWhileTheBufferIsFull() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    buffer = new WriteBehindBuffer(config(100, 2, 60_000), (node, batch) -> {
+      batches.add(batch);
+      sending.countDown();
+      await(release);
+    });
+
+    buffer.put(node, "a", 1);
+    buffer.put(node, "b", 2);
+
+    // A key that is already buffered only replaces its value, so it does not wait.
+    buffer.put(node, "a", 3);
+
+    CompletableFuture<Object> blocked = CompletableFuture.supplyAsync(() -> buffer.put(node, "c", 4));
+    CompletableFuture<Void> flush = CompletableFuture.runAsync(() -> buffer.flush(node));
+    sending.await();
+    Thread.sleep(100);
+    assertFalse(blocked.isDone());
+
+    release.countDown();
+    flush.get(5, TimeUnit.SECONDS);
+    assertNull(blocked.get(5, TimeUnit.SECONDS));
+    assertEquals(map("a", 3, "b", 2), batches.get(0));
+    assertEquals(4, buffer.get(node, "c"));
+  }
+
+  @Test
+  public void aMapReadsItsOwnWritesAndFlushesThemBeforeConditionalWrites() throws Exception {
+    directory = Files.createTempDirectory("meshmap").toFile();
+    MeshMapConfig config = MeshMapConfig.builder()
+      .writeBehind(true)
+      .writeBehindFlushInterval(60_000)
+      .build();
+
+    Node ownerNode = freeNode();
+    MeshMap<String, Integer> writerMap = start(config, freeNode()).join();
+    MeshMapImpl<String, Integer> writer = (MeshMapImpl<String, Integer>) writerMap;
+    MeshMap<String, Integer> owner = start(config, ownerNode).join();
+    String key = keyOwnedBy(writer, ownerNode);
+
+    writer.put(key, 1);
+    assertEquals(Integer.valueOf(1), writer.get(key));
+    assertTrue(writer.containsKey(key));
+
+    // The write has not reached its owner yet.
+    assertNull(owner.get(key));
+
+    // Removing sends the buffered write first, so it removes the value that was buffered.
+    assertEquals(Integer.valueOf(1), writer.remove(key));
+    assertNull(owner.get(key));
+    assertFalse(writer.containsKey(key));
+
+    writer.put(key, 2);
+    assertTrue(writer.replace(key, 2, 3));
+    assertEquals(Integer.valueOf(3), owner.get(key));
+
+    writer.put(key, 4);
+    assertEquals(Integer.valueOf(4), writer.putIfAbsent(key, 5));
+    assertEquals(Integer.valueOf(4), owner.get(key));
+  }
+
+  private LocalMeshMapCluster start(MeshMapConfig config, Node self) {
+    LocalMeshMapCluster node = new LocalMeshMapCluster(self, directory, config);
+    nodes.add(node);
+    return node;
+  }
+
+  private static String keyOwnedBy(MeshMapImpl<String, Integer> map, Node owner) {
+    for (int i = 0; ; i++) {
+      String key = "key-" + i;
+
+      if (map.getNodeForKey(key).equals(owner)) {
+        return key;
+      }
+    }
+  }
+
+  private static MeshMapConfig config(int batchSize, int maxPending, long flushInterval) {
+    return MeshMapConfig.builder()
+      .writeBehind(true)
+      .writeBehindBatchSize(batchSize)
+      .writeBehindMaxPending(maxPending)
+      .writeBehindFlushInterval(flushInterval)
+      .build();
+  }
+
+  private static Map<Object, Object> map(Object... entries) {
+    Map<Object, Object> map = new HashMap<>();
+
+    for (int i = 0; i < entries.length; i += 2) {
+      map.put(entries[i], entries[i + 1]);
+    }
+
+    return map;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(condition.getAsBoolean());
+  }
+
+  private static Node freeNode() throws IOException {
+    return new Node(new InetSocketAddress("127.0.0.1", freePort()));
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}